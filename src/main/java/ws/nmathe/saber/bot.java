@@ -1,15 +1,19 @@
 package ws.nmathe.saber;
 
+import ws.nmathe.saber.core.ExecutorRegistry;
 import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.core.command.CommandHandler;
 import ws.nmathe.saber.core.database.Driver;
 import ws.nmathe.saber.core.google.CalendarConverter;
 import ws.nmathe.saber.core.schedule.EntryManager;
+import ws.nmathe.saber.core.schedule.RSVPService;
 import ws.nmathe.saber.core.settings.BotSettingsManager;
 import ws.nmathe.saber.core.schedule.ScheduleManager;
 import ws.nmathe.saber.core.settings.GuildSettingsManager;
 import ws.nmathe.saber.utils.HttpUtilities;
 import ws.nmathe.saber.utils.Logging;
+import ws.nmathe.saber.utils.MessageDispatcher;
+import ws.nmathe.saber.utils.RetryQueue;
 
 /**
  * Load point for the bot application
@@ -19,12 +23,16 @@ public class Main
 {
     private static ShardManager shardManager;
     private static BotSettingsManager botSettingsManager     = new BotSettingsManager();
+    private static ExecutorRegistry executorRegistry         = new ExecutorRegistry();
     private static EntryManager entryManager                 = new EntryManager();
     private static ScheduleManager scheduleManager           = new ScheduleManager();
     private static CommandHandler commandHandler             = new CommandHandler();
     private static CalendarConverter calendarConverter       = new CalendarConverter();
     private static GuildSettingsManager guildSettingsManager = new GuildSettingsManager();
     private static Driver mongoDriver                        = new Driver();
+    private static RSVPService rsvpService                   = new RSVPService();
+    private static MessageDispatcher messageDispatcher       = new MessageDispatcher();
+    private static RetryQueue retryQueue                     = new RetryQueue();
 
     /**
      * initialize the bot
@@ -59,6 +67,11 @@ public class Main
         return botSettingsManager;
     }
 
+    public static ExecutorRegistry getExecutorRegistry()
+    {
+        return executorRegistry;
+    }
+
     public static CommandHandler getCommandHandler()
     {
         return commandHandler;
@@ -88,4 +101,19 @@ public class Main
     {
         return mongoDriver;
     }
+
+    public static RSVPService getRSVPService()
+    {
+        return rsvpService;
+    }
+
+    public static MessageDispatcher getMessageDispatcher()
+    {
+        return messageDispatcher;
+    }
+
+    public static RetryQueue getRetryQueue()
+    {
+        return retryQueue;
+    }
 }
@@ -0,0 +1,54 @@
+package ws.nmathe.saber.commands.admin;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.commands.Command;
+import ws.nmathe.saber.commands.CommandInfo;
+import ws.nmathe.saber.utils.MessageUtilities;
+
+import java.util.Map;
+
+/**
+ * shows the query plans of the bot's hot database queries for the admin
+ */
+public class ExplainCommand implements Command
+{
+    @Override
+    public String name()
+    {
+        return "explain";
+    }
+
+    @Override
+    public CommandInfo info(String prefix)
+    {
+        return null;
+    }
+
+    @Override
+    public String verify(String prefix, String[] args, MessageReceivedEvent event)
+    {
+        return "";
+    }
+
+    @Override
+    public void action(String prefix, String[] args, MessageReceivedEvent event)
+    {
+        StringBuilder msg = new StringBuilder("```python\n\"Query Plans\"\n");
+        for (Map.Entry<String, String> plan : Main.getDBDriver().getIndexManager().explainHotQueries().entrySet())
+        {
+            msg.append(plan.getKey()).append("\n    ").append(plan.getValue()).append("\n");
+        }
+        msg.append("```");
+
+        if(event.isFromType(ChannelType.PRIVATE))
+        {
+            MessageUtilities.sendPrivateMsg( msg.toString(), event.getAuthor(), null );
+        }
+        else
+        {
+            MessageUtilities.sendMsg( msg.toString(), event.getTextChannel(), null );
+        }
+    }
+}
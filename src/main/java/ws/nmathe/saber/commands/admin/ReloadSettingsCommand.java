@@ -33,6 +33,7 @@ public class ReloadSettingsCommand implements Command
     public void action(String head, String[] args, MessageReceivedEvent event)
     {
         Main.getBotSettingsManager().reloadSettings();
+        Main.getExecutorRegistry().resize();
         MessageUtilities.sendPrivateMsg("Reloaded bot settings!", event.getAuthor(), null);
     }
 }
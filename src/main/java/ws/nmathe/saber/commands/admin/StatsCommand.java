@@ -1,11 +1,15 @@
 package ws.nmathe.saber.commands.admin;
 
+import com.google.common.cache.CacheStats;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.ChannelType;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.apache.commons.lang3.StringUtils;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.CommandInfo;
+import ws.nmathe.saber.core.ExecutorRegistry;
+import ws.nmathe.saber.utils.MessageDispatcher;
 import ws.nmathe.saber.utils.MessageUtilities;
 
 import java.lang.management.ManagementFactory;
@@ -40,12 +44,68 @@ public class StatsCommand implements Command
         JDA.ShardInfo info = event.getJDA().getShardInfo();
         Runtime rt = Runtime.getRuntime();
         RuntimeMXBean rb = ManagementFactory.getRuntimeMXBean();
+        CacheStats settingsStats = Main.getScheduleManager().getSettingsCacheStats();
+        CacheStats guildStats = Main.getGuildSettingsManager().getCacheStats();
+
+        StringBuilder dispatcherStats = new StringBuilder();
+        for (MessageDispatcher.Priority priority : MessageDispatcher.Priority.values())
+        {
+            dispatcherStats.append(String.format("%13s: %d / %d / %dms / %dms\n",
+                    StringUtils.capitalize(priority.name().toLowerCase()),
+                    Main.getMessageDispatcher().getQueueDepth(priority),
+                    Main.getMessageDispatcher().getSentCount(priority),
+                    Main.getMessageDispatcher().getAverageWait(priority),
+                    Main.getMessageDispatcher().getMaxWait(priority)));
+        }
+
+        StringBuilder executorStats = new StringBuilder();
+        for (ExecutorRegistry.Pool pool : Main.getExecutorRegistry().getPools())
+        {
+            executorStats.append(String.format("%13s: %d / %d / %d / %d\n",
+                    pool.getName(),
+                    pool.getActiveCount(),
+                    pool.getPoolSize(),
+                    pool.getQueuedCount(),
+                    pool.getRejectedCount()));
+        }
 
         String msg = "```python\n" +
                 "\"Database\"\n" +
                 "      Entries: " + Main.getDBDriver().getEventCollection().count() + "\n" +
                 "    Schedules: " + Main.getDBDriver().getScheduleCollection().count() + "\n" +
                 "       Guilds: " + Main.getDBDriver().getGuildCollection().count() + "\n" +
+                "\n\"Schedule Settings Cache\"\n" +
+                "         Size: " + Main.getScheduleManager().getSettingsCacheSize() + "\n" +
+                "         Hits: " + settingsStats.hitCount() + "\n" +
+                "       Misses: " + settingsStats.missCount() + "\n" +
+                "     Hit-rate: " + String.format("%.2f", settingsStats.hitRate()) + "\n" +
+                "    Evictions: " + settingsStats.evictionCount() + "\n" +
+                "\n\"Guild Settings Cache\"\n" +
+                "         Hits: " + guildStats.hitCount() + "\n" +
+                "       Misses: " + guildStats.missCount() + "\n" +
+                "     Hit-rate: " + String.format("%.2f", guildStats.hitRate()) + "\n" +
+                "\n\"Event Actions\"\n" +
+                "       Queued: " + Main.getEntryManager().getQueuedActionCount() + "\n" +
+                "    Cancelled: " + Main.getEntryManager().getCancelledActionCount() + "\n" +
+                "        Stuck: " + Main.getEntryManager().getStuckActionCount() + "\n" +
+                "  Catching up: " + Main.getEntryManager().getCatchUpPendingCount() + "\n" +
+                "    Caught up: " + Main.getEntryManager().getCatchUpReplayedCount() + "\n" +
+                "    Collapsed: " + Main.getEntryManager().getCatchUpCollapsedCount() + "\n" +
+                "\n\"Display Refresh\"\n" +
+                "    Requested: " + Main.getEntryManager().getDisplayRefresher().getRequestedCount() + "\n" +
+                "        Edits: " + Main.getEntryManager().getDisplayRefresher().getEditCount() + "\n" +
+                "      Pending: " + Main.getEntryManager().getDisplayRefresher().getPendingCount() + "\n" +
+                "\n\"Outbound Queue\" (queued / sent / avg wait / max wait)\n" +
+                dispatcherStats +
+                "   Superseded: " + Main.getMessageDispatcher().getSupersededCount() + "\n" +
+                "\n\"Retry Queue\"\n" +
+                "      Waiting: " + Main.getRetryQueue().getWaitingCount() + "\n" +
+                "      Retried: " + Main.getRetryQueue().getRetriedCount() + "\n" +
+                "    Recovered: " + Main.getRetryQueue().getRecoveredCount() + "\n" +
+                "      Spilled: " + Main.getRetryQueue().getSpilledCount() + "\n" +
+                " Dead letters: " + Main.getRetryQueue().getDeadLetterCount() + "\n" +
+                "\n\"Executors\" (active / threads / queued / rejected)\n" +
+                executorStats +
                 "\n\"Shard\"\n" +
                 "      ShardId: " + info.getShardId() + "/" + info.getShardTotal() + "\n" +
                 "       Guilds: " + event.getJDA().getGuilds().size() + "\n" +
@@ -6,9 +6,7 @@ import net.dv8tion.jda.api.events.channel.text.TextChannelDeleteEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberLeaveEvent;
 import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
-import net.dv8tion.jda.api.exceptions.PermissionException;
 import org.apache.commons.lang3.StringUtils;
-import org.bson.Document;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.core.schedule.ScheduleEntry;
 import ws.nmathe.saber.core.settings.GuildSettingsManager;
@@ -22,7 +20,6 @@ import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
-import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.eq;
 
@@ -113,6 +110,7 @@ public class EventListener extends ListenerAdapter
 
         /* command processing */
         // set prefix to local guild prefix or bot @mention
+        // guild settings are cached by the manager, ordinary chat messages do not reach the database
         GuildSettingsManager.GuildSettings guildSettings = Main.getGuildSettingsManager().getGuildSettings(event.getGuild().getId());
         String botID = "<@250801603630596100>";
         //if (content.matches("<@"+event.getJDA().getSelfUser().getId()+">([ ]*)(.)*"))
@@ -237,8 +235,12 @@ public class EventListener extends ListenerAdapter
     @Override
     public void onMessageDelete( MessageDeleteEvent event )
     {
+        // most deleted messages are not event messages, reject those without a database lookup
+        if (!Main.getEntryManager().getMessageIndex().mightContain(event.getMessageId())) return;
+
         // delete the event if the delete message was an event message
         Main.getDBDriver().getEventCollection().findOneAndDelete(eq("messageId", event.getMessageId()));
+        Main.getEntryManager().getMessageIndex().remove(event.getMessageId());
     }
 
     @Override
@@ -251,6 +253,7 @@ public class EventListener extends ListenerAdapter
         {
             Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
             Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+            Main.getScheduleManager().invalidateSettings(cId);
         }
     }
 
@@ -284,7 +287,6 @@ public class EventListener extends ListenerAdapter
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void onMessageReactionAdd(MessageReactionAddEvent event)
     {
         // stop processing if the event is not from a guild text channel
@@ -298,35 +300,12 @@ public class EventListener extends ListenerAdapter
 
         if(reactionLimiter.check(event.getUser().getId())) return;
 
+        // don't process reactions added to messages which are not event messages
+        if(!Main.getEntryManager().getMessageIndex().mightContain(event.getMessageId())) return;
+
         // if the schedule is rsvp enabled and the user added an rsvp emoji to the event
         // add the user to the appropriate rsvp list and remove the emoji
-        try
-        {
-            Document doc = Main.getDBDriver().getEventCollection()
-                    .find(eq("messageId", event.getMessageId())).first();
-
-            if(doc != null)
-            {
-                ScheduleEntry se = new ScheduleEntry(doc);
-                boolean removeReaction = se.handleRSVPReaction(event);
-                if (removeReaction)
-                {
-                    // attempt to remove the reaction
-                    Consumer<Throwable> errorProcessor = e ->
-                    {
-                        if(!(e instanceof PermissionException))
-                        {
-                            Logging.exception(this.getClass(), e);
-                        }
-                    };
-                    event.getReaction().removeReaction(event.getUser()).queue(null, errorProcessor);
-                }
-            }
-        }
-        catch(PermissionException ignored) { }
-        catch(Exception e)
-        {
-            Logging.exception(this.getClass(), e);
-        }
+        // reactions on the same message are processed in order, off the JDA event thread
+        Main.getRSVPService().handleReaction(event);
     }
 }
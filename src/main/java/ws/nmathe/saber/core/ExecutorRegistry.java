@@ -0,0 +1,333 @@
+package ws.nmathe.saber.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Creates and tracks the named worker pools of the bot.
+ * Each pool has a fixed number of threads and a bounded queue, so a large sweep or a flood of commands
+ * waits for (or is refused by) the pool rather than starting a thread per task.
+ * What happens to a task submitted to a saturated pool is decided by the pool's Saturation policy.
+ * Pool sizes are read from the bot settings and may be changed at runtime with resize().
+ * When virtual threads are enabled (virtual_threads) and the runtime supports them (Java 21+), pools instead
+ * start a virtual thread per task, and are neither sized nor saturated.
+ */
+public class ExecutorRegistry
+{
+    private static final long KEEP_ALIVE = 60;                          // seconds an idle thread is kept
+    private static final long SHED_WARN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /** what is done with a task submitted to a pool whose threads are busy and whose queue is full */
+    public enum Saturation
+    {
+        CALLER_RUNS,    // the submitting thread runs the task, slowing the producer down
+        SHED            // the task is dropped
+    }
+
+    private final Map<String, Pool> pools = new LinkedHashMap<>();      // guarded by this
+
+    private Boolean virtual;        // whether pools use virtual threads, decided when the first pool is created
+
+    /**
+     * creates a named pool
+     * @param name name of the pool, also used to name its threads
+     * @param size supplies the number of threads of the pool, read again on each resize()
+     * @param capacity number of tasks which may wait for a thread
+     * @param saturation policy applied to tasks submitted while the queue is full
+     * @return the pool
+     */
+    public synchronized ExecutorService create(String name, IntSupplier size, int capacity, Saturation saturation)
+    {
+        ThreadFactory virtualFactory = this.usesVirtualThreads() ? virtualThreadFactory(name) : null;
+        if (virtualFactory != null)
+        {
+            VirtualPool pool = new VirtualPool(name, virtualFactory);
+            this.pools.put(name, pool);
+            return pool;
+        }
+        PlatformPool pool = new PlatformPool(name, size, capacity, saturation);
+        this.pools.put(name, pool);
+        return pool;
+    }
+
+    /**
+     * @return true if pools run their tasks on virtual threads
+     */
+    public synchronized boolean usesVirtualThreads()
+    {
+        if (this.virtual == null)
+        {
+            this.virtual = Main.getBotSettingsManager().getVirtualThreads() && virtualThreadFactory("probe") != null;
+            if (Main.getBotSettingsManager().getVirtualThreads() && !this.virtual)
+            {
+                Logging.warn(this.getClass(), "Virtual threads are not supported by this runtime (" +
+                        System.getProperty("java.version") + "), using platform threads.");
+            }
+        }
+        return this.virtual;
+    }
+
+    /**
+     * builds a factory of named virtual threads through reflection, as the bot is compiled for Java 8
+     * @return the factory, or null if the runtime does not support virtual threads
+     */
+    private static ThreadFactory virtualThreadFactory(String name)
+    {
+        try
+        {
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * applies the current thread counts of each pool's size supplier
+     */
+    public synchronized void resize()
+    {
+        for (Pool entry : this.pools.values())
+        {
+            if (!(entry instanceof PlatformPool)) continue;
+            PlatformPool pool = (PlatformPool) entry;
+            int size = Math.max(1, pool.size.getAsInt());
+            if (size == pool.getMaximumPoolSize()) continue;
+
+            // the core size may never exceed the maximum size
+            if (size > pool.getMaximumPoolSize())
+            {
+                pool.setMaximumPoolSize(size);
+                pool.setCorePoolSize(size);
+            }
+            else
+            {
+                pool.setCorePoolSize(size);
+                pool.setMaximumPoolSize(size);
+            }
+            Logging.info(this.getClass(), "Resized the " + pool.name + " pool to " + size + " threads.");
+        }
+    }
+
+    /**
+     * @return the pools, in order of creation
+     */
+    public synchronized Collection<Pool> getPools()
+    {
+        return Collections.unmodifiableCollection(new ArrayList<>(this.pools.values()));
+    }
+
+    /**
+     * the counters of a pool
+     */
+    public interface Pool
+    {
+        String getName();
+
+        /**
+         * @return number of threads running a task
+         */
+        int getActiveCount();
+
+        /**
+         * @return number of threads of the pool
+         */
+        int getPoolSize();
+
+        /**
+         * @return number of tasks waiting for a thread
+         */
+        int getQueuedCount();
+
+        /**
+         * @return number of tasks submitted while the pool was saturated (run by the caller or dropped)
+         */
+        long getRejectedCount();
+    }
+
+    /**
+     * a named pool of fixed size with a bounded queue which counts the tasks it refused
+     */
+    private static class PlatformPool extends ThreadPoolExecutor implements Pool
+    {
+        private final String name;
+        private final IntSupplier size;
+        private final Saturation saturation;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong lastWarned = new AtomicLong();
+
+        private PlatformPool(String name, IntSupplier size, int capacity, Saturation saturation)
+        {
+            super(Math.max(1, size.getAsInt()), Math.max(1, size.getAsInt()), KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(capacity),
+                    new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+            this.name = name;
+            this.size = size;
+            this.saturation = saturation;
+            this.allowCoreThreadTimeOut(true);
+            this.setRejectedExecutionHandler(this::saturated);
+        }
+
+        private void saturated(Runnable task, ThreadPoolExecutor executor)
+        {
+            this.rejected.incrementAndGet();
+            if (this.isShutdown()) return;
+            switch (this.saturation)
+            {
+                case CALLER_RUNS:
+                    task.run();
+                    break;
+
+                case SHED:
+                    long now = System.currentTimeMillis();
+                    long last = this.lastWarned.get();
+                    if (now - last > SHED_WARN_INTERVAL && this.lastWarned.compareAndSet(last, now))
+                    {
+                        Logging.warn(this.getClass(), "The " + this.name + " pool is saturated, " +
+                                this.rejected.get() + " tasks have been dropped.");
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public String getName()
+        {
+            return this.name;
+        }
+
+        @Override
+        public int getQueuedCount()
+        {
+            return this.getQueue().size();
+        }
+
+        @Override
+        public long getRejectedCount()
+        {
+            return this.rejected.get();
+        }
+    }
+
+    /**
+     * a named pool which starts a virtual thread for each task
+     */
+    private static class VirtualPool extends AbstractExecutorService implements Pool
+    {
+        private final String name;
+        private final ThreadFactory factory;
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean shutdown = false;
+
+        private VirtualPool(String name, ThreadFactory factory)
+        {
+            this.name = name;
+            this.factory = factory;
+        }
+
+        @Override
+        public void execute(Runnable task)
+        {
+            if (this.shutdown) throw new RejectedExecutionException("The " + this.name + " pool is shut down");
+            this.active.incrementAndGet();
+            this.factory.newThread(() ->
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    synchronized (this)
+                    {
+                        if (this.active.decrementAndGet() == 0) this.notifyAll();
+                    }
+                }
+            }).start();
+        }
+
+        @Override
+        public void shutdown()
+        {
+            this.shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            this.shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return this.shutdown;
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return this.shutdown && this.active.get() == 0;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            while (!this.isTerminated())
+            {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0) return false;
+                this.wait(remaining);
+            }
+            return true;
+        }
+
+        @Override
+        public String getName()
+        {
+            return this.name;
+        }
+
+        @Override
+        public int getActiveCount()
+        {
+            return this.active.get();
+        }
+
+        @Override
+        public int getPoolSize()
+        {
+            return this.active.get();
+        }
+
+        @Override
+        public int getQueuedCount()
+        {
+            return 0;
+        }
+
+        @Override
+        public long getRejectedCount()
+        {
+            return 0;
+        }
+    }
+}
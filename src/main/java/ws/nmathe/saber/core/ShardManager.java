@@ -10,11 +10,16 @@ import net.dv8tion.jda.api.utils.MiscUtil;
 import net.dv8tion.jda.api.utils.SessionControllerAdapter;
 import net.dv8tion.jda.api.utils.*;
 import net.dv8tion.jda.api.requests.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.Logging;
 import javax.security.auth.login.LoginException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.mongodb.client.model.Filters.in;
 
 /**
  * The ShardManager manages the JDA objects used to interface with the Discord api
@@ -26,6 +31,10 @@ public class ShardManager
     private JDA jda = null;                                 // used only when unsharded
     private JDABuilder builder;  // builder to be used as the template for starting/restarting shards
 
+    // matches the documents of guilds on the shards run by this process, set before any shard is started
+    private static volatile Bson localShardFilter = new Document();
+    private static volatile String localShardKey = "";
+
     /**
      * Populates the shard manager with initialized JDA shards (if sharding)
      * @param shards a list of integers, where each integer represents a shard ID
@@ -36,6 +45,9 @@ public class ShardManager
     {
         // initialize the list of 'Now Playing' games
         this.shardTotal = shardTotal;
+        localShardFilter = shardTotal > 0 ? in("shard", new ArrayList<>(shards)) : new Document();
+        localShardKey = shardTotal > 0 ? shards.stream().sorted().map(String::valueOf)
+                .collect(Collectors.joining(",", "[", "/" + shardTotal + "]")) : "";
 
         try // connect the bot to the discord API and initialize schedule components
         {
@@ -206,6 +218,37 @@ public class ShardManager
                 Main.getShardManager().getShard(guildId) : Main.getShardManager().getJDA();
     }
 
+    /**
+     * Computes the shard responsible for a guild, as is done by getShard(String)
+     * @param guildId unique (snowflake) guild ID
+     * @return shard ID, or 0 if sharding is not enabled
+     */
+    public static int shardOf(String guildId)
+    {
+        int total = Main.getBotSettingsManager().getShardTotal();
+        if (total <= 0) return 0;
+        return (int) ((MiscUtil.parseSnowflake(guildId) >> 22) % total);
+    }
+
+    /**
+     * Filter on the 'shard' field of guild, schedule, and event documents which matches
+     * only the documents of guilds on the shards run by this process
+     * @return the filter, which matches all documents if sharding is not enabled
+     */
+    public static Bson getLocalShardFilter()
+    {
+        return localShardFilter;
+    }
+
+    /**
+     * Identifies the set of shards run by this process (ie. "[0,1/4]")
+     * @return the identifier, or an empty string if sharding is not enabled
+     */
+    public static String getLocalShardKey()
+    {
+        return localShardKey;
+    }
+
     /**
      * retrieves a specific JDA shard
      * Should only be used when sharding is enabled
@@ -225,9 +268,7 @@ public class ShardManager
      */
     public JDA getShard(String guildId)
     {
-        long id = MiscUtil.parseSnowflake(guildId);
-        long shardId = (id >> 22) % Main.getBotSettingsManager().getShardTotal();
-        return jdaShards.get((int) shardId);
+        return jdaShards.get(shardOf(guildId));
     }
 
 
@@ -1,12 +1,12 @@
 package ws.nmathe.saber.core.command;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.dv8tion.jda.api.entities.ChannelType;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.admin.*;
+import ws.nmathe.saber.core.ExecutorRegistry;
 import ws.nmathe.saber.core.RateLimiter;
 import ws.nmathe.saber.utils.MessageUtilities;
 import ws.nmathe.saber.commands.general.*;
@@ -15,7 +15,6 @@ import ws.nmathe.saber.utils.Logging;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Handles MessageEvents which contain user commands
@@ -23,9 +22,8 @@ import java.util.concurrent.Executors;
 public class CommandHandler
 {
     private final CommandParser commandParser = new CommandParser();      // parses command strings into containers
-    private final ExecutorService executor = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("CommandHandler-%d").build()
-    ); // thread pool for running commands
+    private static final int QUEUED_COMMANDS = 1000;     // commands waiting for a thread before new commands are dropped
+    private ExecutorService executor;                        // thread pool for running commands
     private final RateLimiter rateLimiter = new RateLimiter();
     private final HashMap<String, Command> commands;         // maps Command to invoke string
     private final HashMap<String, Command> adminCommands;    // ^^ but for admin commands
@@ -43,6 +41,12 @@ public class CommandHandler
      */
     public void init()
     {
+        if (executor == null)
+        {
+            executor = Main.getExecutorRegistry().create("Commands",
+                    Main.getBotSettingsManager()::getCommandWorkers, QUEUED_COMMANDS, ExecutorRegistry.Saturation.SHED);
+        }
+
         // add bot commands with their lookup name
         commands.put((new HelpCommand()).name(), new HelpCommand());
         commands.put((new InitCommand()).name(), new InitCommand());
@@ -71,6 +75,7 @@ public class CommandHandler
         adminCommands.put((new ClearLocksCommand()).name(), new ClearLocksCommand());
         adminCommands.put((new ShardsCommand()).name(), new ShardsCommand());
         adminCommands.put((new AvatarCommand()).name(), new AvatarCommand());
+        adminCommands.put((new ExplainCommand()).name(), new ExplainCommand());
 
         initialized = true;
     }
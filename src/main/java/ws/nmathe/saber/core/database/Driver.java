@@ -4,14 +4,30 @@ import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.utils.Logging;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
 
 public class Driver
 {
     private MongoDatabase db;
+    private IndexManager indexManager;
+    private LeaseManager leaseManager;
 
     public void init()
     {
@@ -20,9 +36,79 @@ public class Driver
         MongoClient mongoClient = new MongoClient(new MongoClientURI(Main.getBotSettingsManager().getMongoURI()));
         db = mongoClient.getDatabase("saberDB");
 
+        // create any missing indexes used by the bot's queries
+        indexManager = new IndexManager(db);
+        indexManager.init();
+
+        // tag documents with their guild's shard, so that each process only reads its own shards' documents
+        assignShards(getGuildCollection(), "_id");
+        assignShards(getScheduleCollection(), "guildId");
+        assignShards(getEventCollection(), "guildId");
+
+        // leases which restrict cluster-wide jobs to a single process
+        leaseManager = new LeaseManager(db);
+
         // schedule a thread to prune disconnected guild, schedules, and events from the database
         ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(new Pruner(), 12, 12, TimeUnit.HOURS);
+        executor.scheduleAtFixedRate(leaseManager.exclusive("pruner", TimeUnit.HOURS.toMillis(13), new Pruner()),
+                12, 12, TimeUnit.HOURS);
+    }
+
+    /**
+     * sets the 'shard' and 'shard_total' fields of every document of the collection which was not
+     * yet assigned a shard under the current shard total
+     * @param guildField name of the field which holds the document's guild ID
+     */
+    private void assignShards(MongoCollection<Document> collection, String guildField)
+    {
+        int total = Main.getBotSettingsManager().getShardTotal();
+        if (total <= 0) return;     // shards are not used to filter queries if sharding is not enabled
+
+        try
+        {
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            int[] count = {0};
+            collection.find(ne("shard_total", total))
+                    .projection(fields(include("_id", guildField)))
+                    .forEach((Consumer<? super Document>) document ->
+                    {
+                        String guildId = document.getString(guildField);
+                        if (guildId == null) return;
+                        updates.add(new UpdateOneModel<>(eq("_id", document.get("_id")), combine(
+                                set("shard", ShardManager.shardOf(guildId)),
+                                set("shard_total", total))));
+                        if (updates.size() >= 500)
+                        {
+                            collection.bulkWrite(updates);
+                            count[0] += updates.size();
+                            updates.clear();
+                        }
+                    });
+            if (!updates.isEmpty())
+            {
+                collection.bulkWrite(updates);
+                count[0] += updates.size();
+            }
+            if (count[0] > 0)
+            {
+                Logging.info(this.getClass(), "Assigned shards to " + count[0] + " documents in " +
+                        collection.getNamespace().getCollectionName() + ".");
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    public IndexManager getIndexManager()
+    {
+        return indexManager;
+    }
+
+    public LeaseManager getLeaseManager()
+    {
+        return leaseManager;
     }
 
     public MongoCollection<Document> getScheduleCollection()
@@ -39,4 +125,19 @@ public class Driver
     {
         return db.getCollection("guilds");
     }
+
+    public MongoCollection<Document> getCheckpointCollection()
+    {
+        return db.getCollection("checkpoints");
+    }
+
+    public MongoCollection<Document> getRetryCollection()
+    {
+        return db.getCollection("retry_queue");
+    }
+
+    public MongoCollection<Document> getDeadLetterCollection()
+    {
+        return db.getCollection("dead_letters");
+    }
 }
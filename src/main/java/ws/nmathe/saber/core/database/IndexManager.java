@@ -0,0 +1,205 @@
+package ws.nmathe.saber.core.database;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.utils.Logging;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Indexes.ascending;
+
+/**
+ * Declares the indexes required by the queries run by the event processor, schedule syncer, pruner,
+ * and event listener. Missing indexes are built in the background on startup.
+ * Also runs explain on the hot queries so that their query plans can be checked by the admin.
+ */
+public class IndexManager
+{
+    private final MongoDatabase db;
+
+    // collection name -> index keys
+    private final Map<String, List<Bson>> declared = new LinkedHashMap<>();
+
+    // "collection.index name" -> seconds after which documents are removed, for TTL indexes
+    private final Map<String, Long> expiring = new HashMap<>();
+
+    IndexManager(MongoDatabase db)
+    {
+        this.db = db;
+
+        declared.put("events", Arrays.asList(
+                ascending("next_action_at"),            // processor loader
+                ascending("shard", "next_action_at"),   // processor loader (sharded)
+                ascending("shard", "expire"),           // expired event purge (sharded)
+                ascending("messageId"),                 // message deletes and reactions
+                ascending("channelId", "start"),        // schedule listing and sorting
+                ascending("channelId", "googleId"),     // calendar sync
+                ascending("guildId"),                   // guild listing and pruning
+                ascending("hasStarted", "start"),       // display timers
+                ascending("hasStarted", "end"),         // display timers
+                ascending("expire")));                  // expired event purge
+
+        declared.put("schedules", Arrays.asList(
+                ascending("guildId"),                   // guild schedule listing
+                ascending("shard", "sync_time"),        // schedule syncer (sharded)
+                ascending("sync_time", "sync_address"))); // schedule syncer
+
+        declared.put("guilds", Collections.singletonList(
+                ascending("shard")));                   // pruner (sharded)
+
+        declared.put("leases", Collections.singletonList(
+                ascending("expires")));                 // removes expired leases
+        expiring.put("leases.expires_1", 0L);
+
+        declared.put("job_history", Collections.singletonList(
+                ascending("started")));                 // keeps 30 days of job runs
+        expiring.put("job_history.started_1", TimeUnit.DAYS.toSeconds(30));
+
+        declared.put("retry_queue", Collections.singletonList(
+                ascending("shard", "next")));           // spilled message retries
+
+        declared.put("dead_letters", Collections.singletonList(
+                ascending("failed")));                  // keeps 30 days of failed requests
+        expiring.put("dead_letters.failed_1", TimeUnit.DAYS.toSeconds(30));
+    }
+
+    /**
+     * creates any declared index which does not exist, on a separate thread as index builds may be slow
+     */
+    void init()
+    {
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IndexManager-%d").build())
+                .execute(this::ensureIndexes);
+    }
+
+    private void ensureIndexes()
+    {
+        for (Map.Entry<String, List<Bson>> collection : declared.entrySet())
+        {
+            try
+            {
+                Set<String> existing = new HashSet<>();
+                db.getCollection(collection.getKey()).listIndexes()
+                        .forEach((Consumer<? super Document>) index -> existing.add(index.getString("name")));
+
+                for (Bson keys : collection.getValue())
+                {
+                    String name = this.indexName(keys);
+                    if (existing.contains(name)) continue;
+                    try
+                    {
+                        long time = System.currentTimeMillis();
+                        IndexOptions options = new IndexOptions().background(true);
+                        Long ttl = expiring.get(collection.getKey() + "." + name);
+                        if (ttl != null) options.expireAfter(ttl, TimeUnit.SECONDS);
+                        db.getCollection(collection.getKey()).createIndex(keys, options);
+                        Logging.info(this.getClass(), "Created index " + collection.getKey() + "." +
+                                name + " in " + (System.currentTimeMillis() - time) + "ms.");
+                    }
+                    catch (Exception e)
+                    {
+                        Logging.warn(this.getClass(), "Unable to create index " + collection.getKey() + "." +
+                                name + ": " + e.getMessage());
+                    }
+                }
+                Logging.info(this.getClass(), "Indexes on " + collection.getKey() + " are provisioned.");
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        }
+    }
+
+    /**
+     * the name mongo gives an index by default (ie. "channelId_1_start_1")
+     */
+    private String indexName(Bson keys)
+    {
+        StringJoiner name = new StringJoiner("_");
+        keys.toBsonDocument(Document.class, db.getCodecRegistry()).forEach((field, value) ->
+                name.add(field).add(String.valueOf(value.asNumber().intValue())));
+        return name.toString();
+    }
+
+    /**
+     * runs explain on each of the hot queries, the queries run by the processor, syncer, and pruner are
+     * scoped to the local shards as they are when run by those jobs
+     * @return map of query description to a summary of its winning plan (ie. "FETCH > IXSCAN next_action_at_1")
+     */
+    public Map<String, String> explainHotQueries()
+    {
+        Date now = new Date();
+        Date tomorrow = Date.from(ZonedDateTime.now().plusDays(1).toInstant());
+
+        Bson shards = ShardManager.getLocalShardFilter();
+        Map<String, String> plans = new LinkedHashMap<>();
+        plans.put("events: next action due",
+                this.explain("events", and(shards, lte("next_action_at", now))));
+        plans.put("events: by message",
+                this.explain("events", eq("messageId", "0")));
+        plans.put("events: by channel",
+                this.explain("events", eq("channelId", "0")));
+        plans.put("events: by guild",
+                this.explain("events", eq("guildId", "0")));
+        plans.put("events: by google id",
+                this.explain("events", and(eq("channelId", "0"), eq("googleId", "0"))));
+        plans.put("events: starting after a day",
+                this.explain("events", and(shards, eq("hasStarted", false), gte("start", tomorrow))));
+        plans.put("events: expiring",
+                this.explain("events", and(shards, lte("expire", tomorrow))));
+        plans.put("schedules: due for sync",
+                this.explain("schedules", and(shards, ne("sync_address", "off"), lte("sync_time", now))));
+        plans.put("schedules: by guild",
+                this.explain("schedules", eq("guildId", "0")));
+        plans.put("guilds: pruner page",
+                this.explain("guilds", shards));
+        return plans;
+    }
+
+    private String explain(String collection, Bson filter)
+    {
+        try
+        {
+            Document command = new Document("explain",
+                    new Document("find", collection)
+                            .append("filter", filter.toBsonDocument(Document.class, db.getCodecRegistry())))
+                    .append("verbosity", "queryPlanner");
+            Document result = db.runCommand(command);
+            Document plan = (Document) ((Document) result.get("queryPlanner")).get("winningPlan");
+            return summarize(plan);
+        }
+        catch (Exception e)
+        {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * reduces a query plan to its stages, innermost last (ie. "FETCH > IXSCAN messageId_1")
+     */
+    private static String summarize(Document plan)
+    {
+        if (plan == null) return "";
+        String stage = plan.getString("stage");
+        if (plan.getString("indexName") != null)
+        {
+            stage += " " + plan.getString("indexName");
+        }
+        Object input = plan.get("inputStage");
+        if (input == null && plan.get("inputStages") instanceof List && !((List) plan.get("inputStages")).isEmpty())
+        {
+            input = ((List) plan.get("inputStages")).get(0);
+        }
+        return input instanceof Document ? stage + " > " + summarize((Document) input) : stage;
+    }
+}
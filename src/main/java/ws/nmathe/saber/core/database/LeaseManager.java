@@ -0,0 +1,136 @@
+package ws.nmathe.saber.core.database;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import org.bson.Document;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.utils.Logging;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+
+/**
+ * Time limited leases held in the 'leases' collection, used to run a periodic job on only one process
+ * of a multi-process deployment. A process which runs a job renews its lease on every run, so the job stays
+ * with that process until it stops renewing, after which the lease expires and another process takes over.
+ * Leases are scoped to the set of shards run by the process, as jobs only operate on the local shards.
+ * Each run of a job is recorded in the 'job_history' collection.
+ */
+public class LeaseManager
+{
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabase db;
+    private final String owner;     // identifies this process
+
+    LeaseManager(MongoDatabase db)
+    {
+        this.db = db;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName();   // "pid@hostname"
+    }
+
+    /**
+     * wraps a periodic job so that it runs only on the process which holds the job's lease
+     * @param job name of the job
+     * @param ttl milliseconds for which a lease is held, should exceed the period of the job
+     * @param task the job
+     * @return runnable to schedule in place of the job
+     */
+    public Runnable exclusive(String job, long ttl, Runnable task)
+    {
+        return () ->
+        {
+            String lease = job + ShardManager.getLocalShardKey();
+            if (!this.acquire(lease, ttl))
+            {
+                Logging.info(this.getClass(), "Skipping " + lease + ", the lease is held by another process.");
+                return;
+            }
+
+            Date started = new Date();
+            String error = null;
+            try
+            {
+                task.run();
+            }
+            catch (Exception e)
+            {
+                error = e.getMessage();
+                Logging.exception(this.getClass(), e);
+            }
+            finally
+            {
+                this.record(lease, started, error);
+            }
+        };
+    }
+
+    /**
+     * takes or renews a lease
+     * @param lease name of the lease
+     * @param ttl milliseconds until the lease expires
+     * @return true if this process holds the lease, false if it does not or the lease could not be read
+     */
+    public boolean acquire(String lease, long ttl)
+    {
+        Date now = new Date();
+        try
+        {
+            // matches only if the lease is free, expired, or already ours; otherwise the upsert collides on _id
+            this.db.getCollection("leases").findOneAndUpdate(
+                    and(eq("_id", lease), or(eq("owner", this.owner), lte("expires", now))),
+                    combine(set("owner", this.owner),
+                            set("acquired", now),
+                            set("expires", new Date(now.getTime() + ttl))),
+                    new FindOneAndUpdateOptions().upsert(true));
+            return true;
+        }
+        catch (MongoCommandException e)
+        {
+            if (e.getErrorCode() == DUPLICATE_KEY) return false;
+            Logging.exception(this.getClass(), e);
+            return false;
+        }
+        catch (MongoWriteException e)
+        {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            Logging.exception(this.getClass(), e);
+            return false;
+        }
+        catch (Exception e)
+        {   // ie. the database is unreachable, the job is skipped until its next run
+            Logging.exception(this.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * adds a run of a job to the job history
+     */
+    private void record(String lease, Date started, String error)
+    {
+        try
+        {
+            Date finished = new Date();
+            this.db.getCollection("job_history").insertOne(new Document()
+                    .append("job", lease)
+                    .append("owner", this.owner)
+                    .append("started", started)
+                    .append("finished", finished)
+                    .append("duration", finished.getTime() - started.getTime())
+                    .append("status", error == null ? "ok" : "failed")
+                    .append("error", error));
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+}
@@ -1,151 +1,260 @@
 package ws.nmathe.saber.core.database;
 
+import com.google.common.util.concurrent.RateLimiter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.exceptions.PermissionException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
 
-import java.util.Collection;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
-import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
 
 /**
- * Removes entries of guilds, schedules, and events that are unreachable
+ * Removes entries of guilds, schedules, and events that are unreachable.
+ * Each collection is read in pages ordered by _id, and the deletes found in a page are sent as a single bulk write.
+ * After every page the position of the pruner is saved to the 'checkpoints' collection, so a run which is
+ * interrupted continues from that position on the next run instead of starting over.
+ * Message lookups used to verify events are limited to the configured rate (prune_request_rate).
  */
 public class Pruner implements Runnable
 {
+    private static final int PAGE_SIZE = 500;
+
+    private enum Phase { GUILDS, SCHEDULES, EVENTS }
+
+    private RateLimiter limiter;
+
     @Override
     public void run()
     {
         Logging.info(this.getClass(), "Running database pruner. . .");
+        this.limiter = RateLimiter.create(Main.getBotSettingsManager().getPruneRequestRate());
+
+        String checkpointId = "pruner" + ShardManager.getLocalShardKey();
+        MongoCollection<Document> checkpoints = Main.getDBDriver().getCheckpointCollection();
+        Document checkpoint = checkpoints.find(eq("_id", checkpointId)).first();
+
+        Phase start = Phase.GUILDS;
+        Object last = null;
+        if (checkpoint != null)
+        {
+            start = Phase.valueOf(checkpoint.getString("phase"));
+            last = checkpoint.get("last");
+            Logging.info(this.getClass(), "Resuming database pruner at " + start + " after " + last + ".");
+        }
+
+        for (Phase phase : Phase.values())
+        {
+            if (phase.ordinal() < start.ordinal()) continue;
+            MongoCollection<Document> collection = this.collectionOf(phase);
+            int pruned = 0;
 
-        // purge guild setting entries for any guild not connected to the bot
-        Bson query = new Document();
-        Main.getDBDriver().getGuildCollection().find(query)
-                .projection(fields(include("_id")))
-                .forEach((Consumer<? super Document>) document ->
+            while (true)
+            {
+                Bson query = last == null ? ShardManager.getLocalShardFilter() :
+                        and(ShardManager.getLocalShardFilter(), gt("_id", last));
+                List<Document> page = collection.find(query)
+                        .projection(fields(include("_id", "messageId", "channelId", "guildId")))
+                        .sort(ascending("_id"))
+                        .limit(PAGE_SIZE)
+                        .into(new ArrayList<>());
+                if (page.isEmpty()) break;
+
+                Batch batch = new Batch();
+                for (Document document : page)
                 {
                     try
                     {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("_id");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        Guild guild = jda.getGuildById(guildId);
-                        if(guild == null)
-                        {
-                            Main.getDBDriver().getGuildCollection().deleteOne(eq("_id", guildId));
-                            Main.getDBDriver().getEventCollection().deleteMany(eq("guildId", guildId));
-                            Main.getDBDriver().getScheduleCollection().deleteMany(eq("guildId", guildId));
-                            Logging.info(this.getClass(), "Pruned guild with ID: " + guildId);
-                        }
+                        this.check(phase, document, batch);
                     }
                     catch(Exception e)
                     {
                         Logging.exception(this.getClass(), e);
                     }
-                });
+                }
+                pruned += batch.flush();
+
+                last = page.get(page.size()-1).get("_id");
+                checkpoints.updateOne(eq("_id", checkpointId),
+                        combine(set("phase", phase.toString()), set("last", last), set("updated", new Date())),
+                        new UpdateOptions().upsert(true));
+            }
+
+            Logging.info(this.getClass(), "Pruned " + pruned + " entries from " + phase.toString().toLowerCase() + ".");
+            last = null;
+        }
+
+        checkpoints.deleteOne(eq("_id", checkpointId));
+    }
 
-        // purge schedules that the bot cannot connect to
-        query = new Document();
-        Main.getDBDriver().getScheduleCollection().find(query)
-                .projection(fields(include("_id", "guildId")))
-                .forEach((Consumer<? super Document>) document ->
+    /**
+     * adds the deletes of an unreachable entry to the batch
+     */
+    private void check(Phase phase, Document document, Batch batch)
+    {
+        // identify which shard is responsible for the entry
+        String guildId = phase == Phase.GUILDS ? document.getString("_id") : document.getString("guildId");
+        JDA jda = Main.getShardManager().getShard(guildId);
+
+        // if the shard is not connected, do not prune
+        if(jda == null) return;
+        if(JDA.Status.CONNECTED != jda.getStatus()) return;
+
+        switch (phase)
+        {
+            // purge guild setting entries for any guild not connected to the bot
+            case GUILDS:
+                Guild guild = jda.getGuildById(guildId);
+                if(guild == null)
                 {
-                    try
+                    batch.guilds.add(new DeleteOneModel<>(eq("_id", guildId)));
+                    batch.events.add(new DeleteManyModel<>(eq("guildId", guildId)));
+                    batch.schedules.add(new DeleteManyModel<>(eq("guildId", guildId)));
+                    batch.after.add(() ->
                     {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("guildId");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        String chanId = document.getString("_id");
-                        MessageChannel channel = jda.getTextChannelById(chanId);
-                        if(channel == null)
-                        {
-                            Main.getDBDriver().getEventCollection().deleteMany(eq("channeldId", chanId));
-                            Main.getDBDriver().getScheduleCollection().deleteMany(eq("_id", chanId));
-                            Logging.info(this.getClass(), "Pruned schedule with channel ID: " + chanId);
-                        }
-                    }
-                    catch(Exception e)
+                        Main.getGuildSettingsManager().invalidateGuildSettings(guildId);
+                        Main.getScheduleManager().getSchedulesForGuild(guildId)
+                                .forEach(Main.getScheduleManager()::invalidateSettings);
+                        Logging.info(this.getClass(), "Pruned guild with ID: " + guildId);
+                    });
+                }
+                break;
+
+            // purge schedules that the bot cannot connect to
+            case SCHEDULES:
+                String chanId = document.getString("_id");
+                MessageChannel channel = jda.getTextChannelById(chanId);
+                if(channel == null)
+                {
+                    batch.events.add(new DeleteManyModel<>(eq("channelId", chanId)));
+                    batch.schedules.add(new DeleteOneModel<>(eq("_id", chanId)));
+                    batch.after.add(() ->
                     {
-                        Logging.exception(this.getClass(), e);
-                    }
-                });
+                        Main.getScheduleManager().invalidateSettings(chanId);
+                        Logging.info(this.getClass(), "Pruned schedule with channel ID: " + chanId);
+                    });
+                }
+                break;
 
+            // purge events for which the bot cannot access the message
+            case EVENTS:
+                Integer eventId = document.getInteger("_id");
+                String messageId = document.getString("messageId");
+                if(messageId == null)
+                {
+                    batch.events.add(new DeleteOneModel<>(eq("_id", eventId)));
+                    batch.after.add(() -> Logging.info(this.getClass(), "Pruned event with ID: " + eventId));
+                    return;
+                }
+
+                // validate channel id
+                String channelId = document.getString("channelId");
+                TextChannel textChannel = jda.getTextChannelById(channelId);
+                if(textChannel == null)
+                {   // only do event pruning in this loop
+                    return;
+                }
 
-        // purge events for which the bot cannot access the message
-        query = new Document();
-        Main.getDBDriver().getEventCollection().find(query)
-                .projection(fields(include("_id", "messageId", "channelId", "guildId")))
-                .forEach((Consumer<? super Document>) document ->
+                // attempt to retrieve the message so as to verify it's existence
+                if(!this.messageExists(textChannel, messageId))
                 {
-                    try
-                    {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("guildId");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        // validate message id
-                        Integer eventId = document.getInteger("_id");
-                        String messageId = document.getString("messageId");
-                        if(messageId == null)
-                        {
-                            Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                            Logging.info(this.getClass(), "Pruned event with ID: " + eventId);
-                            return;
-                        }
-
-                        // validate channel id
-                        String channelId = document.getString("channelId");
-                        TextChannel channel = jda.getTextChannelById(channelId);
-                        if(channel==null)
-                        {   // only do event pruning in this loop
-                            return;
-                        }
-
-                        // attempt to retrieve the message so as to verify it's existence
-                        channel.retrieveMessageById(messageId).queue(
-                                message ->
-                                {
-                                    if(message == null)
-                                    {
-                                        Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                                        Logging.info(this.getClass(), "Pruned event with ID: " + eventId + " on channel with ID: " + channelId);
-                                    }
-                                },
-                                throwable ->
-                                {
-                                    Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                                    Logging.info(this.getClass(), "Pruned event with ID: " + eventId + " on channel with ID: " + channelId);
-                                });
-                    }
-                    catch(Exception e)
-                    {
-                        Logging.exception(this.getClass(), e);
-                    }
-            });
+                    batch.events.add(new DeleteOneModel<>(eq("_id", eventId)));
+                    batch.after.add(() -> Logging.info(this.getClass(),
+                            "Pruned event with ID: " + eventId + " on channel with ID: " + channelId));
+                }
+                break;
+        }
+    }
+
+    /**
+     * retrieves a message within the pruner's request rate
+     * @return false if the message does not exist or cannot be accessed by the bot,
+     *         true if it exists or the lookup failed for any other reason
+     */
+    private boolean messageExists(TextChannel channel, String messageId)
+    {
+        this.limiter.acquire();
+        try
+        {
+            return channel.retrieveMessageById(messageId).complete() != null;
+        }
+        catch (PermissionException e)
+        {
+            return false;
+        }
+        catch (ErrorResponseException e)
+        {
+            return e.getErrorResponse() != ErrorResponse.UNKNOWN_MESSAGE &&
+                    e.getErrorResponse() != ErrorResponse.MISSING_ACCESS;
+        }
+        catch (Exception e)
+        {
+            Logging.warn(this.getClass(), "Unable to verify message " + messageId + ": " + e.getMessage());
+            return true;
+        }
+    }
+
+    private MongoCollection<Document> collectionOf(Phase phase)
+    {
+        switch (phase)
+        {
+            case GUILDS:
+                return Main.getDBDriver().getGuildCollection();
+            case SCHEDULES:
+                return Main.getDBDriver().getScheduleCollection();
+            default:
+                return Main.getDBDriver().getEventCollection();
+        }
+    }
+
+    /**
+     * the deletes found in a page of entries
+     */
+    private class Batch
+    {
+        final List<WriteModel<Document>> guilds = new ArrayList<>();
+        final List<WriteModel<Document>> schedules = new ArrayList<>();
+        final List<WriteModel<Document>> events = new ArrayList<>();
+        final List<Runnable> after = new ArrayList<>();     // run once the deletes have been written
+
+        /**
+         * @return number of entries pruned
+         */
+        int flush()
+        {
+            write(Main.getDBDriver().getEventCollection(), this.events);
+            write(Main.getDBDriver().getScheduleCollection(), this.schedules);
+            write(Main.getDBDriver().getGuildCollection(), this.guilds);
+            this.after.forEach(Runnable::run);
+            return this.after.size();
+        }
+
+        private void write(MongoCollection<Document> collection, List<WriteModel<Document>> deletes)
+        {
+            if (deletes.isEmpty()) return;
+            collection.bulkWrite(deletes, new BulkWriteOptions().ordered(false));
+        }
     }
 }
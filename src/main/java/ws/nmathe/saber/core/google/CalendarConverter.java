@@ -206,9 +206,7 @@ public class CalendarConverter
             // change the zone to match the calendar
             // only if the zone has not been manually set for that schedule
             ZoneId zone = ZoneId.of( events.getTimeZone() );
-            Boolean syncZone = Main.getDBDriver().getScheduleCollection().find(eq("_id", channel.getId()))
-                    .first().getBoolean("timezone_sync", false);
-            if(syncZone)
+            if(Main.getScheduleManager().isTimeZoneSynced(channel.getId()))
             {
                 Main.getScheduleManager().setTimeZone( channel.getId(), zone );
             }
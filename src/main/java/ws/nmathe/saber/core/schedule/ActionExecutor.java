@@ -0,0 +1,251 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes fired event actions on a fixed set of workers.
+ * Pending actions are held in a lane per action type, and a worker always takes from the highest priority
+ * lane which has work (start, end, reminder, then special announcements).
+ * Within a lane the guilds with pending actions take turns, one action at a time, so a guild with
+ * thousands of actions due at once cannot hold up the actions of other guilds.
+ * An action which runs past its deadline is cancelled: its worker is interrupted and retired,
+ * and a new worker takes its place so that stuck requests cannot drain the pool.
+ */
+class ActionExecutor
+{
+    private static final List<EntryProcessor.ActionType> PRIORITY = Arrays.asList(
+            EntryProcessor.ActionType.START,
+            EntryProcessor.ActionType.END,
+            EntryProcessor.ActionType.REMIND,
+            EntryProcessor.ActionType.SPECIAL);
+
+    private static final long WATCHDOG_PERIOD = 5;      // seconds between checks for overdue actions
+
+    private final Map<EntryProcessor.ActionType, Lane> lanes = new EnumMap<>(EntryProcessor.ActionType.class);
+    private int pending = 0;
+
+    private final long deadline;                          // milliseconds an action may run
+    private final ThreadFactory factory;
+    private final Set<Task> running = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> retired = ConcurrentHashMap.newKeySet();   // workers whose action was cancelled
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * @param workers number of threads executing actions
+     * @param deadline milliseconds an action may run before it is cancelled
+     */
+    ActionExecutor(int workers, long deadline)
+    {
+        this.deadline = deadline;
+        for (EntryProcessor.ActionType type : PRIORITY)
+        {
+            this.lanes.put(type, new Lane());
+        }
+        this.factory = new ThreadFactoryBuilder().setNameFormat("ActionExecutor-%d").setDaemon(true).build();
+        for (int i=0; i<workers; i++)
+        {
+            this.factory.newThread(this::work).start();
+        }
+
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ActionWatchdog-%d").setDaemon(true).build());
+        watchdog.scheduleWithFixedDelay(this::cancelOverdue, WATCHDOG_PERIOD, WATCHDOG_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * queues an action behind the guild's earlier actions of the same type,
+     * exactly one of onDone and onTimeout is run once the action has been executed or cancelled
+     * @param type the action type, determines the lane
+     * @param guildId the guild which owns the event
+     * @param action the action
+     * @param onDone run after the action returns
+     * @param onTimeout run when the action is cancelled for overrunning its deadline
+     */
+    synchronized void execute(EntryProcessor.ActionType type, String guildId,
+                              Runnable action, Runnable onDone, Runnable onTimeout)
+    {
+        this.lanes.get(type).add(guildId == null ? "" : guildId, new Task(action, onDone, onTimeout));
+        this.pending++;
+        this.notify();
+    }
+
+    /**
+     * @return number of actions waiting for a worker
+     */
+    synchronized int size()
+    {
+        return this.pending;
+    }
+
+    /**
+     * @return number of actions cancelled for overrunning their deadline
+     */
+    long getCancelledCount()
+    {
+        return this.cancelled.get();
+    }
+
+    /**
+     * @return number of retired workers whose cancelled action has still not returned
+     */
+    int getStuckCount()
+    {
+        return this.retired.size();
+    }
+
+    private synchronized Task take() throws InterruptedException
+    {
+        while (this.pending == 0)
+        {
+            this.wait();
+        }
+        for (EntryProcessor.ActionType type : PRIORITY)
+        {
+            Task task = this.lanes.get(type).poll();
+            if (task != null)
+            {
+                this.pending--;
+                return task;
+            }
+        }
+        throw new IllegalStateException("pending actions were not found in any lane");
+    }
+
+    private void work()
+    {
+        Thread worker = Thread.currentThread();
+        while (!this.retired.contains(worker))
+        {
+            Task task;
+            try
+            {
+                task = this.take();
+            }
+            catch (InterruptedException e)
+            {
+                continue;   // interrupted after its action was cancelled, the loop condition decides
+            }
+
+            task.worker = worker;
+            task.due = System.currentTimeMillis() + this.deadline;
+            this.running.add(task);
+            try
+            {
+                task.action.run();
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+            finally
+            {
+                boolean done;
+                synchronized (task)
+                {   // either the action returned in time or the worker has been retired
+                    done = this.running.remove(task);
+                }
+                if (done)
+                {
+                    task.onDone.run();
+                }
+            }
+        }
+        this.retired.remove(worker);
+        Thread.interrupted();   // clear an interrupt which arrived after the action returned
+    }
+
+    /**
+     * cancels every running action which has passed its deadline and replaces its worker
+     */
+    private void cancelOverdue()
+    {
+        long now = System.currentTimeMillis();
+        for (Task task : this.running)
+        {
+            if (task.due > now) continue;
+            synchronized (task)
+            {
+                if (!this.running.remove(task)) continue;   // the action has just returned
+                this.retired.add(task.worker);
+                task.worker.interrupt();
+            }
+            try
+            {
+                this.cancelled.incrementAndGet();
+                this.factory.newThread(this::work).start();
+                task.onTimeout.run();
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        }
+    }
+
+    /**
+     * an action with its completion callbacks
+     */
+    private static class Task
+    {
+        final Runnable action;
+        final Runnable onDone;
+        final Runnable onTimeout;
+        volatile Thread worker;
+        volatile long due;
+
+        Task(Runnable action, Runnable onDone, Runnable onTimeout)
+        {
+            this.action = action;
+            this.onDone = onDone;
+            this.onTimeout = onTimeout;
+        }
+    }
+
+    /**
+     * the pending actions of a single type, queued per guild
+     */
+    private static class Lane
+    {
+        private final Map<String, Deque<Task>> byGuild = new HashMap<>();
+        private final Deque<String> turns = new ArrayDeque<>();     // guilds with pending actions, in turn order
+
+        void add(String guildId, Task task)
+        {
+            Deque<Task> queue = this.byGuild.get(guildId);
+            if (queue == null)
+            {
+                queue = new ArrayDeque<>();
+                this.byGuild.put(guildId, queue);
+                this.turns.add(guildId);
+            }
+            queue.add(task);
+        }
+
+        Task poll()
+        {
+            String guildId = this.turns.poll();
+            if (guildId == null) return null;
+
+            Deque<Task> queue = this.byGuild.get(guildId);
+            Task task = queue.poll();
+            if (queue.isEmpty())
+            {
+                this.byGuild.remove(guildId);
+            }
+            else
+            {   // the guild takes its next turn after every other waiting guild
+                this.turns.add(guildId);
+            }
+            return task;
+        }
+    }
+}
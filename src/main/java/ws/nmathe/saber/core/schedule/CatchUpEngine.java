@@ -0,0 +1,148 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the actions of events which were missed while the bot (or the event's shard) was offline.
+ * Overdue events are replayed oldest first at the configured rate (catch_up_rate) rather than all at once,
+ * and each event carries out only the action which brings it up to date (see NextAction.collapse),
+ * so reminders and starts which were overtaken by a later transition are never announced.
+ * Announcements of replayed actions are still subject to the guild's late threshold.
+ */
+class CatchUpEngine
+{
+    // actions overdue by more than this when loaded are caught up rather than fired by the timer wheel
+    static final long GRACE = TimeUnit.MINUTES.toMillis(2);
+
+    // delay before an event which was busy being processed is replayed again
+    private static final long BUSY_DELAY = 5000;
+
+    private final PriorityBlockingQueue<Overdue> queue = new PriorityBlockingQueue<>(64,
+            Comparator.comparingLong(overdue -> overdue.due));
+    private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+    private final RateLimiter limiter = RateLimiter.create(Main.getBotSettingsManager().getCatchUpRate());
+    private final ScheduledExecutorService requeuer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("CatchUpRequeue-%d").setDaemon(true).build());
+
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    CatchUpEngine()
+    {
+        new ThreadFactoryBuilder().setNameFormat("CatchUp-%d").setDaemon(true).build()
+                .newThread(this::work).start();
+    }
+
+    /**
+     * queues an overdue event, an event which is already queued is ignored
+     * @param document the event's document
+     * @return false if the event was already queued
+     */
+    boolean add(Document document)
+    {
+        Integer eventId = document.getInteger("_id");
+        if (!this.queued.add(eventId)) return false;
+        this.queue.add(new Overdue(eventId, document.getString("guildId"),
+                document.getDate("next_action_at").getTime()));
+        return true;
+    }
+
+    private void work()
+    {
+        while (true)
+        {
+            Overdue overdue;
+            try
+            {
+                overdue = this.queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            boolean done = true;
+            try
+            {
+                this.limiter.acquire();
+                if (EntryProcessor.catchUp(overdue.eventId, overdue.guildId))
+                {
+                    this.replayed.incrementAndGet();
+                }
+                else
+                {   // the event is busy with another action, and is behind the loaded horizon so no load
+                    // would pick it up again, replay it once it has been released
+                    this.requeuer.schedule(() -> this.queue.add(overdue), BUSY_DELAY, TimeUnit.MILLISECONDS);
+                    done = false;
+                }
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+            finally
+            {
+                if (done) this.queued.remove(overdue.eventId);
+            }
+        }
+    }
+
+    /**
+     * counts an event whose overdue actions were collapsed into a later transition
+     */
+    void collapsed()
+    {
+        this.collapsed.incrementAndGet();
+    }
+
+    /**
+     * @return number of overdue events waiting to be replayed
+     */
+    int getPendingCount()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * @return number of overdue events replayed
+     */
+    long getReplayedCount()
+    {
+        return this.replayed.get();
+    }
+
+    /**
+     * @return number of overdue events which skipped actions overtaken by a later transition
+     */
+    long getCollapsedCount()
+    {
+        return this.collapsed.get();
+    }
+
+    private static class Overdue
+    {
+        final Integer eventId;
+        final String guildId;
+        final long due;
+
+        Overdue(Integer eventId, String guildId, long due)
+        {
+            this.eventId = eventId;
+            this.guildId = guildId;
+            this.due = due;
+        }
+    }
+}
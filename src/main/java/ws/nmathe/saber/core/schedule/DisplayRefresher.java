@@ -0,0 +1,120 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Coalesces the display refreshes of event messages so that at most one edit is sent per event message
+ * within the configured refresh window (display_refresh_window).
+ * A refresh requested while the window is open marks the event dirty, and a single edit rendered from
+ * the event's latest state in the database is sent once the window has passed.
+ */
+public class DisplayRefresher
+{
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("DisplayRefresher-%d").build());
+
+    // events with a pending edit -> the event as of its latest refresh request
+    private final Map<Integer, ScheduleEntry> dirty = new ConcurrentHashMap<>();
+    private final Cache<Integer, Long> lastEdit = CacheBuilder.newBuilder()  // time of each event's last edit
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong edited = new AtomicLong();
+
+    /**
+     * requests a refresh of an event's display message, the message is edited immediately
+     * if it has not been edited within the refresh window, otherwise the edit is deferred
+     * @param se the event, as it was last written to the database
+     */
+    void refresh(ScheduleEntry se)
+    {
+        this.requested.incrementAndGet();
+        Integer eventId = se.getId();
+        if (this.dirty.put(eventId, se) != null) return;      // the pending edit will show this change
+
+        Long last = this.lastEdit.getIfPresent(eventId);
+        long delay = last == null ? 0 :
+                last + Main.getBotSettingsManager().getDisplayRefreshWindow() - System.currentTimeMillis();
+        if (delay <= 0)
+        {   // the entry is current, render it without going back to the database
+            this.scheduler.execute(() -> this.edit(eventId, true));
+        }
+        else
+        {
+            this.scheduler.schedule(() -> this.edit(eventId, false), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * edits the display message of an event
+     * @param current true to render the event as of its latest refresh request,
+     *                false to render the event as it is currently stored
+     */
+    private void edit(Integer eventId, boolean current)
+    {
+        try
+        {
+            // refreshes requested from now on will wait for the next window
+            this.lastEdit.put(eventId, System.currentTimeMillis());
+            ScheduleEntry se = this.dirty.remove(eventId);
+
+            if (!current || se == null)
+            {
+                Document document = Main.getDBDriver().getEventCollection().find(eq("_id", eventId)).first();
+                if (document == null) return;   // the event was removed in the meantime
+                se = new ScheduleEntry(document);
+            }
+            else if (Main.getDBDriver().getEventCollection()
+                    .find(eq("_id", eventId)).projection(include("_id")).first() == null)
+            {
+                return;     // the event was removed, and its display message is being deleted
+            }
+            se.updateDisplay();
+            this.edited.incrementAndGet();
+        }
+        catch (Exception e)
+        {
+            Logging.warn(this.getClass(), "Unable to refresh the display of event " + eventId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of display refreshes requested
+     */
+    public long getRequestedCount()
+    {
+        return this.requested.get();
+    }
+
+    /**
+     * @return number of display message edits sent
+     */
+    public long getEditCount()
+    {
+        return this.edited.get();
+    }
+
+    /**
+     * @return number of events waiting for their display message to be edited
+     */
+    public int getPendingCount()
+    {
+        return this.dirty.size();
+    }
+}
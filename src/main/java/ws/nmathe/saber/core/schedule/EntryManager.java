@@ -1,27 +1,37 @@
 package ws.nmathe.saber.core.schedule;
 
 import com.mongodb.MongoException;
-import com.mongodb.client.MongoIterable;
-import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 import com.vdurmont.emoji.EmojiManager;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Emote;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.entities.Message;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
 import ws.nmathe.saber.utils.MessageUtilities;
 import java.security.SecureRandom;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
 
 
 /**
@@ -33,6 +43,10 @@ import static com.mongodb.client.model.Updates.set;
 public class EntryManager
 {
     private Random generator;
+    private EntryTimerWheel timerWheel = new EntryTimerWheel();
+    private EventMessageIndex messageIndex = new EventMessageIndex();
+    private DisplayRefresher displayRefresher = new DisplayRefresher();
+    private WakeupScheduler wakeups = new WakeupScheduler();
     public enum type { PROCESS, UPDATE1, UPDATE2, UPDATE3 }
 
     /** construct EntryManager and seed random from OS random source */
@@ -47,26 +61,229 @@ public class EntryManager
      */
     public void init()
     {
-        /* thread to process events */
         ScheduledExecutorService announcementScheduler = Executors.newSingleThreadScheduledExecutor();
-        announcementScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.PROCESS),
-                15, 15, TimeUnit.SECONDS);
+        // migrate events created before the next action was stored (runs before the first load)
+        // then load upcoming event actions into the timer wheel whenever an unloaded action comes near
+        announcementScheduler.execute(() ->
+        {
+            this.backfillNextActions();
+            this.redeliverOutboxes();
+            wakeups.register(type.PROCESS, new EntryProcessor(type.PROCESS), this::planLoad, 0);
+        });
+        // index of event display messages, periodically rebuilt to drop events which were removed in bulk
+        announcementScheduler.scheduleWithFixedDelay(messageIndex::rebuild, 0, 12, TimeUnit.HOURS);
 
-        // scheduler for threads to adjust entry display timers
-        ScheduledExecutorService updateDisplayScheduler = Executors.newSingleThreadScheduledExecutor();
+        /* timer wheel which fires event actions at their due time */
+        timerWheel.init();
+
+        /* jobs to adjust entry display timers, each runs only while it has events to update */
         // updates events with times >24h
-        updateDisplayScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.UPDATE3),
-                12, 6, TimeUnit.HOURS);
-        // updates events with times >1 hour (but <24h)
-        updateDisplayScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.UPDATE2),
-                30, 15, TimeUnit.MINUTES);
+        wakeups.register(type.UPDATE3, new EntryProcessor(type.UPDATE3),
+                () -> System.currentTimeMillis() + TimeUnit.HOURS.toMillis(6), TimeUnit.HOURS.toMillis(12));
+        // updates events with times >1 hour (but <24h), and purges expiring events
+        wakeups.register(type.UPDATE2, new EntryProcessor(type.UPDATE2),
+                this::planHourTimers, TimeUnit.MINUTES.toMillis(30));
         // update events with times <1 hour
-        //updateDisplayScheduler.scheduleWithFixedDelay(
-        //        new EntryProcessor(type.UPDATE1),
-        //        5, 3, TimeUnit.MINUTES);
+        wakeups.register(type.UPDATE1, new EntryProcessor(type.UPDATE1),
+                this::planMinuteTimers, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * plans the next load of event actions, which is due once the earliest action
+     * beyond the loaded window is within half a window
+     */
+    private long planLoad()
+    {
+        long now = System.currentTimeMillis();
+        Document first = Main.getDBDriver().getEventCollection()
+                .find(and(ShardManager.getLocalShardFilter(), gt("next_action_at", EntryProcessor.getLoadedHorizon())))
+                .sort(ascending("next_action_at"))
+                .projection(include("next_action_at"))
+                .first();
+        return first == null ? WakeupScheduler.NEVER : Math.max(now + TimeUnit.MINUTES.toMillis(1),
+                first.getDate("next_action_at").getTime() - TimeUnit.MINUTES.toMillis(EntryProcessor.WINDOW_MINUTES)/2);
+    }
+
+    /**
+     * plans the next update of the 'in x minutes' timers, which is due on the next refresh
+     * while an event starts or ends within the hour, otherwise once the next event comes within the hour
+     */
+    private long planMinuteTimers()
+    {
+        long now = System.currentTimeMillis();
+        long next = this.nextTimer(now);
+        if (next == WakeupScheduler.NEVER) return next;
+        return Math.max(next - TimeUnit.HOURS.toMillis(1), nextMinuteRefresh(now));
+    }
+
+    /**
+     * plans the next update of the 'in x hours' timers and purge of expiring events,
+     * which is due every 15 minutes while there are events within the day
+     */
+    private long planHourTimers()
+    {
+        long now = System.currentTimeMillis();
+        long next = this.nextTimer(now + TimeUnit.HOURS.toMillis(1));
+        Document expiring = Main.getDBDriver().getEventCollection()
+                .find(and(ShardManager.getLocalShardFilter(), ne("expire", null)))
+                .sort(ascending("expire"))
+                .projection(include("expire"))
+                .first();
+        if (expiring != null)
+        {
+            next = Math.min(next, expiring.getDate("expire").getTime());
+        }
+        if (next == WakeupScheduler.NEVER) return next;
+        return Math.max(next - TimeUnit.DAYS.toMillis(1), now + TimeUnit.MINUTES.toMillis(15));
+    }
+
+    /**
+     * finds the earliest start of an event which has not started, or end of an event which has started
+     * @param after epoch milliseconds after which to search
+     * @return the epoch milliseconds of the start or end, or NEVER if there is none
+     */
+    private long nextTimer(long after)
+    {
+        long next = WakeupScheduler.NEVER;
+        for (String field : Arrays.asList("start", "end"))
+        {
+            Document first = Main.getDBDriver().getEventCollection()
+                    .find(and(ShardManager.getLocalShardFilter(),
+                            eq("hasStarted", field.equals("end")),
+                            gt(field, new Date(after))))
+                    .sort(ascending(field))
+                    .projection(include(field))
+                    .first();
+            if (first != null) next = Math.min(next, first.getDate(field).getTime());
+        }
+        return next;
+    }
+
+    /**
+     * @return epoch milliseconds of the next minute boundary on which the 'in x minutes' timers are refreshed
+     */
+    private static long nextMinuteRefresh(long now)
+    {
+        long step = TimeUnit.MINUTES.toMillis(Main.getBotSettingsManager().getCountdownRefreshMinutes());
+        return (now / step + 1) * step;
+    }
+
+    /**
+     * wakes the jobs whose next run is brought forward by an event which has been written
+     * @param se the event
+     * @param next the next action of the event
+     */
+    private void wakeFor(ScheduleEntry se, NextAction next)
+    {
+        long now = System.currentTimeMillis();
+        if (next != null && next.due.after(horizon()))
+        {   // the action is not yet in the timer wheel
+            wakeups.wake(type.PROCESS, next.due.getTime() -
+                    TimeUnit.MINUTES.toMillis(EntryProcessor.WINDOW_MINUTES)/2);
+        }
+
+        long timer = (se.hasStarted() ? se.getEnd() : se.getStart()).toInstant().toEpochMilli();
+        wakeups.wake(type.UPDATE1, Math.max(timer - TimeUnit.HOURS.toMillis(1), nextMinuteRefresh(now)));
+        wakeups.wake(type.UPDATE2, Math.max(timer - TimeUnit.DAYS.toMillis(1), now + TimeUnit.MINUTES.toMillis(15)));
+        if (se.getExpire() != null)
+        {
+            wakeups.wake(type.UPDATE2, Math.max(se.getExpire().toInstant().toEpochMilli() - TimeUnit.DAYS.toMillis(1),
+                    now + TimeUnit.MINUTES.toMillis(15)));
+        }
+    }
+
+    /**
+     * sends the announcements left in the outboxes of events by actions whose state transition was written
+     * but whose announcements were not sent (ie. the bot stopped in between), announcements which have become
+     * late are dropped; an announcement may be sent twice if the bot stopped after sending but before marking it
+     */
+    private void redeliverOutboxes()
+    {
+        try
+        {
+            Bson query = and(ShardManager.getLocalShardFilter(), exists("outbox"), ne("outbox", new Document()));
+            Main.getDBDriver().getEventCollection().find(query).forEach((Consumer<? super Document>) document ->
+            {
+                try
+                {
+                    JDA jda = Main.getShardManager().getJDA(document.getString("guildId"));
+                    if (jda == null || !jda.getStatus().equals(JDA.Status.CONNECTED)) return;
+                    Guild guild = jda.getGuildById(document.getString("guildId"));
+                    if (guild == null) return;
+
+                    ScheduleEntry se = new ScheduleEntry(document);
+                    Integer threshold = Main.getGuildSettingsManager()
+                            .getGuildSettings(se.getGuildId()).getLateThreshold();
+                    long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(threshold);
+                    Document outbox = (Document) document.get("outbox");
+                    for (String key : outbox.keySet())
+                    {
+                        long due = Long.parseLong(key.substring(key.indexOf('@')+1));
+                        if (due < cutoff)
+                        {
+                            Logging.warn(this.getClass(), "Dropped late undelivered "+key+
+                                    " of '"+se.getTitle()+"' ["+se.getId()+"]");
+                            Main.getDBDriver().getEventCollection()
+                                    .updateOne(eq("_id", se.getId()), unset("outbox."+key));
+                            continue;
+                        }
+                        @SuppressWarnings("unchecked")
+                        List<Document> items = (List<Document>) outbox.get(key);
+                        Logging.info(this.getClass(), "Redelivering "+key+" of '"+se.getTitle()+"' ["+se.getId()+"]");
+                        se.deliver(guild, key, items);
+                    }
+                }
+                catch (Exception e)
+                {
+                    Logging.exception(this.getClass(), e);
+                }
+            });
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * sets the 'next_action_at' and 'next_action_type' fields on any event document which does not yet have them
+     */
+    private void backfillNextActions()
+    {
+        try
+        {
+            Date now = new Date();
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            int[] count = {0};
+            Main.getDBDriver().getEventCollection().find(exists("next_action_at", false))
+                    .forEach((Consumer<? super Document>) document ->
+                    {
+                        NextAction next = NextAction.of(document, now);
+                        if (next == null) return;
+                        updates.add(new UpdateOneModel<>(eq("_id", document.getInteger("_id")), combine(
+                                set("next_action_at", next.due),
+                                set("next_action_type", next.type.toString()))));
+                        if (updates.size() >= 500)
+                        {
+                            Main.getDBDriver().getEventCollection().bulkWrite(updates);
+                            count[0] += updates.size();
+                            updates.clear();
+                        }
+                    });
+            if (!updates.isEmpty())
+            {
+                Main.getDBDriver().getEventCollection().bulkWrite(updates);
+                count[0] += updates.size();
+            }
+            if (count[0] > 0)
+            {
+                Logging.info(this.getClass(), "Set the next action of "+count[0]+" events.");
+            }
+        }
+        catch(Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
     }
 
     /**
@@ -127,6 +344,7 @@ public class EntryManager
                 }
 
                 // add new document
+                NextAction next = NextAction.of(se, new Date());
                 Document entryDocument =
                         new Document("_id", se.getId())
                                 .append("title", se.getTitle())
@@ -153,11 +371,20 @@ public class EntryManager
                                 .append("expire", finalExpire)
                                 .append("deadline", finalDeadline)
                                 .append("guildId", se.getGuildId())
+                                .append("shard", ShardManager.shardOf(se.getGuildId()))
+                                .append("shard_total", Main.getBotSettingsManager().getShardTotal())
                                 .append("location", se.getLocation())
                                 .append("description", se.getDescription())
-                                .append("color", se.getColor());
+                                .append("color", se.getColor())
+                                .append("next_action_at", next.due)
+                                .append("next_action_type", next.type.toString())
+                                .append("ledger", se.getLedger());
 
                 Main.getDBDriver().getEventCollection().insertOne(entryDocument);
+                se.setMessageObject(msg).setPersisted(snapshot(entryDocument));
+                messageIndex.put(msg.getId(), se.getId());
+                timerWheel.schedule(se.getId(), se.getGuildId(), next, horizon());
+                wakeFor(se, next);
 
                 // auto-sort the schedule if configured
                 autoSort(sort, channelId);
@@ -200,49 +427,31 @@ public class EntryManager
 
         try
         {
-            // replace whole document
-            Document entryDocument =
-                    new Document("_id", se.getId())
-                            .append("title", se.getTitle())
-                            .append("start", Date.from(se.getStart().toInstant()))
-                            .append("end", Date.from(se.getEnd().toInstant()))
-                            .append("comments", se.getComments())
-                            .append("recurrence", se.getRepeat())
-                            .append("reminders", se.getReminders())
-                            .append("end_reminders", se.getEndReminders())
-                            .append("url", se.getTitleUrl())
-                            .append("hasStarted", se.hasStarted())
-                            .append("messageId", se.getMessageId())
-                            .append("channelId", se.getChannelId())
-                            .append("googleId", se.getGoogleId())
-                            .append("rsvp_members", se.getRsvpMembers())
-                            .append("rsvp_limits", se.getRsvpLimits())
-                            .append("start_disabled", se.isQuietStart())
-                            .append("end_disabled", se.isQuietEnd())
-                            .append("reminders_disabled", se.isQuietRemind())
-                            .append("expire", finalExpire)
-                            .append("orig_start", Date.from(se.getRecurrence().getOriginalStart().toInstant()))
-                            .append("count", se.getRecurrence().getCount())
-                            .append("image", se.getImageUrl())
-                            .append("thumbnail", se.getThumbnailUrl())
-                            .append("deadline", finalDeadline)
-                            .append("guildId", se.getGuildId())
-                            .append("announcements", new ArrayList<>(se.getAnnouncements()))
-                            .append("announcement_dates", se.getAnnouncementDates())
-                            .append("announcement_times", se.getAnnouncementTimes())
-                            .append("announcement_messages", se.getAnnouncementMessages())
-                            .append("announcement_targets", se.getAnnouncementTargets())
-                            .append("location", se.getLocation())
-                            .append("description", se.getDescription())
-                            .append("color", se.getColor());
-
-            UpdateResult res = Main.getDBDriver().getEventCollection()
-                    .replaceOne(eq("_id", se.getId()), entryDocument);
-            if (!res.wasAcknowledged())
+            NextAction next = NextAction.of(se, new Date());
+            Document entryDocument = toDocument(se, finalExpire, finalDeadline, next);
+
+            // write only the fields which differ from the stored document,
+            // events which were not read from the database have every field written
+            String claim = se.takeClaim();
+            Document persisted = se.getPersisted();
+            List<Bson> changes = diff(persisted == null ? new Document() : persisted, entryDocument);
+            changes.addAll(ledgerChanges(se, claim));
+            UpdateResult res = changes.isEmpty() ? null :
+                    Main.getDBDriver().getEventCollection().updateOne(filterOf(se.getId(), claim), combine(changes));
+            if (res != null && !res.wasAcknowledged())
             {
                 Logging.warn(this.getClass(), "Attempt to update '"+se.getTitle()+"' was unacknowledged!");
                 return false; // return false, might result in skipped announcement or other issues
             }
+            if (claim != null && (res == null || res.getMatchedCount() == 0))
+            {
+                Logging.info(this.getClass(), "Skipped "+claim+" of '"+se.getTitle()+"' ["+se.getId()+"], already carried out.");
+                return false;
+            }
+            se.setPersisted(snapshot(entryDocument));
+            messageIndex.put(se.getMessageId(), se.getId());
+            timerWheel.schedule(se.getId(), se.getGuildId(), next, horizon());
+            this.wakeFor(se, next);
 
             // update the event message with the information changes (if any)
             // this may (is) over-aggressive, however it is convenient and easier to manage
@@ -261,6 +470,147 @@ public class EntryManager
         }
     }
 
+    /**
+     * builds the complete database document for an event
+     */
+    private static Document toDocument(ScheduleEntry se, Date expire, Date deadline, NextAction next)
+    {
+        return new Document("_id", se.getId())
+                .append("title", se.getTitle())
+                .append("start", Date.from(se.getStart().toInstant()))
+                .append("end", Date.from(se.getEnd().toInstant()))
+                .append("comments", se.getComments())
+                .append("recurrence", se.getRepeat())
+                .append("reminders", se.getReminders())
+                .append("end_reminders", se.getEndReminders())
+                .append("url", se.getTitleUrl())
+                .append("hasStarted", se.hasStarted())
+                .append("messageId", se.getMessageId())
+                .append("channelId", se.getChannelId())
+                .append("googleId", se.getGoogleId())
+                .append("rsvp_members", se.getRsvpMembers())
+                .append("rsvp_limits", se.getRsvpLimits())
+                .append("start_disabled", se.isQuietStart())
+                .append("end_disabled", se.isQuietEnd())
+                .append("reminders_disabled", se.isQuietRemind())
+                .append("expire", expire)
+                .append("orig_start", Date.from(se.getRecurrence().getOriginalStart().toInstant()))
+                .append("count", se.getRecurrence().getCount())
+                .append("image", se.getImageUrl())
+                .append("thumbnail", se.getThumbnailUrl())
+                .append("deadline", deadline)
+                .append("guildId", se.getGuildId())
+                .append("shard", ShardManager.shardOf(se.getGuildId()))
+                .append("shard_total", Main.getBotSettingsManager().getShardTotal())
+                .append("announcements", new ArrayList<>(se.getAnnouncements()))
+                .append("announcement_dates", se.getAnnouncementDates())
+                .append("announcement_times", se.getAnnouncementTimes())
+                .append("announcement_messages", se.getAnnouncementMessages())
+                .append("announcement_targets", se.getAnnouncementTargets())
+                .append("location", se.getLocation())
+                .append("description", se.getDescription())
+                .append("color", se.getColor())
+                .append("next_action_at", next.due)
+                .append("next_action_type", next.type.toString());
+    }
+
+    /**
+     * determines the update which turns the stored document into the new document,
+     * the ledger and outbox are not part of the event's document and are written by ledgerChanges
+     * @return $set and $unset of the changed fields, empty if nothing has changed
+     */
+    private static List<Bson> diff(Document stored, Document updated)
+    {
+        List<Bson> changes = new ArrayList<>();
+        for (Map.Entry<String, Object> field : updated.entrySet())
+        {
+            if (field.getKey().equals("_id")) continue;
+            if (!stored.containsKey(field.getKey()) ||
+                    !Objects.equals(normalize(stored.get(field.getKey())), normalize(field.getValue())))
+            {
+                changes.add(set(field.getKey(), field.getValue()));
+            }
+        }
+        for (String key : stored.keySet())
+        {   // a replace would have dropped fields which are no longer written
+            if (!updated.containsKey(key) && !key.equals("ledger") && !key.equals("outbox")) changes.add(unset(key));
+        }
+        return changes;
+    }
+
+    /**
+     * determines the writes of the event's ledger and outbox, each key is written on its own as the stored
+     * ledger and outbox are changed by markSent, which is not seen by the event's copy of the ledger
+     * @param claim (nullable) ledger key recorded by the write
+     * @return $set of the claimed key and its announcements, and $unset of the keys past retention
+     */
+    private static List<Bson> ledgerChanges(ScheduleEntry se, String claim)
+    {
+        List<Bson> changes = new ArrayList<>();
+        List<Document> outbox = se.takeClaimOutbox();
+        if (claim != null)
+        {
+            changes.add(set("ledger."+claim, se.getLedger().get(claim)));
+            if (!outbox.isEmpty()) changes.add(set("outbox."+claim, outbox));
+        }
+        se.takeExpiredLedgerKeys().forEach(key ->
+        {
+            changes.add(unset("ledger."+key));
+            changes.add(unset("outbox."+key));
+        });
+        return changes;
+    }
+
+    /**
+     * makes maps comparable regardless of their implementation (ie. Document and LinkedHashMap)
+     */
+    @SuppressWarnings("unchecked")
+    private static Object normalize(Object value)
+    {
+        if (value instanceof Map)
+        {
+            Map<Object, Object> map = new HashMap<>();
+            ((Map<Object, Object>) value).forEach((k, v) -> map.put(k, normalize(v)));
+            return map;
+        }
+        if (value instanceof Collection)
+        {
+            List<Object> list = new ArrayList<>();
+            ((Collection<Object>) value).forEach(v -> list.add(normalize(v)));
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * deep copies an event document so that later changes to an event's collections do not alter the copy
+     */
+    @SuppressWarnings("unchecked")
+    static Document snapshot(Document document)
+    {
+        Document copy = new Document();
+        document.forEach((key, value) -> copy.put(key, copyValue(value)));
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value)
+    {
+        if (value instanceof Map)
+        {
+            Map<Object, Object> map = new LinkedHashMap<>();
+            ((Map<Object, Object>) value).forEach((k, v) -> map.put(k, copyValue(v)));
+            return map;
+        }
+        if (value instanceof Collection)
+        {
+            List<Object> list = new ArrayList<>();
+            ((Collection<Object>) value).forEach(v -> list.add(copyValue(v)));
+            return list;
+        }
+        return value;
+    }
+
     /**
      * update the event's database entry's hasStarted flag to true
      * @param se schedule entry which has started
@@ -270,14 +620,34 @@ public class EntryManager
     {
         try
         {
+            NextAction next = NextAction.of(se, new Date());
+            String claim = se.takeClaim();
+            List<Bson> changes = new ArrayList<>(Arrays.asList(
+                    set("hasStarted", true),
+                    set("next_action_at", next.due),
+                    set("next_action_type", next.type.toString())));
+            changes.addAll(ledgerChanges(se, claim));
             UpdateResult res = Main.getDBDriver().getEventCollection()
                     // using the 'update many' call seems to work more effectively
-                    .updateMany(eq("_id", se.getId()), set("hasStarted", true));
+                    .updateMany(filterOf(se.getId(), claim), combine(changes));
             if (!res.wasAcknowledged())
             {
                 Logging.warn(this.getClass(), "Attempt to update '"+se.getTitle()+"' was unacknowledged!");
                 return false; // might result in skipped announcements or other issues
             }
+            if (claim != null && res.getMatchedCount() == 0)
+            {
+                Logging.info(this.getClass(), "Skipped "+claim+" of '"+se.getTitle()+"' ["+se.getId()+"], already carried out.");
+                return false;
+            }
+            if (se.getPersisted() != null)
+            {
+                se.getPersisted().append("hasStarted", true)
+                        .append("next_action_at", next.due)
+                        .append("next_action_type", next.type.toString());
+            }
+            timerWheel.schedule(se.getId(), se.getGuildId(), next, horizon());
+            this.wakeFor(se, next);
             se.reloadDisplay();
             return true;
         }
@@ -361,13 +731,63 @@ public class EntryManager
     /**
      * removes an entry by id from the db
      * @param entryId (Integer) ID of event entry
-     * @return true if the remove was acknowledged (safe), otherwise false
+     * @return true if the remove was completed without error
      */
     public boolean removeEntry(Integer entryId)
     {
-        DeleteResult res = Main.getDBDriver().getEventCollection()
-                .deleteMany(eq("_id", entryId));
-        return res.wasAcknowledged();
+        Document document = Main.getDBDriver().getEventCollection()
+                .findOneAndDelete(eq("_id", entryId), new FindOneAndDeleteOptions()
+                        .projection(fields(include("messageId"))));
+        if (document != null)
+        {
+            messageIndex.remove(document.getString("messageId"));
+        }
+        timerWheel.cancel(entryId);
+        return true;
+    }
+
+    /**
+     * removes an event which has run its course, the removal is rejected if the action
+     * claimed by the event is already recorded in the event's ledger
+     * @param se the event
+     * @return true if the event was removed
+     */
+    boolean removeEntry(ScheduleEntry se)
+    {
+        Document document = Main.getDBDriver().getEventCollection()
+                .findOneAndDelete(filterOf(se.getId(), se.takeClaim()), new FindOneAndDeleteOptions()
+                        .projection(fields(include("messageId"))));
+        if (document == null) return false;
+        messageIndex.remove(document.getString("messageId"));
+        timerWheel.cancel(se.getId());
+        return true;
+    }
+
+    /**
+     * marks an action in an event's ledger as having sent its announcements, and removes them from the outbox
+     * @param eventId ID of the event
+     * @param key ledger key of the action
+     */
+    void markSent(Integer eventId, String key)
+    {
+        try
+        {
+            Main.getDBDriver().getEventCollection().updateOne(eq("_id", eventId),
+                    combine(set("ledger."+key, true), unset("outbox."+key)));
+        }
+        catch(MongoException e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * @param claim (nullable) ledger key which the write records
+     * @return filter which matches the event, unless the claimed action is already recorded in its ledger
+     */
+    private static Bson filterOf(Integer eventId, String claim)
+    {
+        return claim == null ? eq("_id", eventId) : and(eq("_id", eventId), exists("ledger."+claim, false));
     }
 
     /**
@@ -448,9 +868,8 @@ public class EntryManager
      */
     public Collection<ScheduleEntry> getEntriesFromGuild(String guildId)
     {
-        MongoIterable<ScheduleEntry> entries = Main.getDBDriver().getEventCollection()
-                .find(eq("guildId", guildId)).map(ScheduleEntry::new);
-        return entries.into(new ArrayList<>());
+        return this.hydrate(Main.getDBDriver().getEventCollection()
+                .find(eq("guildId", guildId)).into(new ArrayList<>()));
     }
 
     /**
@@ -460,9 +879,111 @@ public class EntryManager
      */
     public Collection<ScheduleEntry> getEntriesFromChannel(String channelId)
     {
-        MongoIterable<ScheduleEntry> entries = Main.getDBDriver().getEventCollection()
-                .find(eq("channelId", channelId)).map(ScheduleEntry::new);
-        return entries.into(new ArrayList<>());
+        return this.hydrate(Main.getDBDriver().getEventCollection()
+                .find(eq("channelId", channelId)).into(new ArrayList<>()));
+    }
+
+    /**
+     * Builds the entries for a batch of event documents,
+     * the settings of every schedule in the batch are loaded with a single query
+     * @param documents documents from the events collection
+     * @return the entries, in the order of the documents
+     */
+    public List<ScheduleEntry> hydrate(Collection<Document> documents)
+    {
+        Set<String> channelIds = new HashSet<>();
+        documents.forEach(document -> channelIds.add(document.getString("channelId")));
+        Main.getScheduleManager().preloadSettings(channelIds);
+
+        Map<String, ZoneId> zones = new HashMap<>();
+        List<ScheduleEntry> entries = new ArrayList<>(documents.size());
+        for (Document document : documents)
+        {
+            ZoneId zone = zones.computeIfAbsent(document.getString("channelId"),
+                    Main.getScheduleManager()::getTimeZone);
+            entries.add(new ScheduleEntry(document, zone));
+        }
+        return entries;
+    }
+
+    /**
+     * the index of event display messages
+     */
+    public EventMessageIndex getMessageIndex()
+    {
+        return this.messageIndex;
+    }
+
+    /**
+     * @return number of fired event actions waiting for a worker
+     */
+    public int getQueuedActionCount()
+    {
+        return EntryProcessor.getQueuedActionCount();
+    }
+
+    /**
+     * @return number of event actions cancelled for overrunning their deadline
+     */
+    public long getCancelledActionCount()
+    {
+        return EntryProcessor.getCancelledActionCount();
+    }
+
+    /**
+     * @return number of cancelled event actions which have still not returned
+     */
+    public int getStuckActionCount()
+    {
+        return EntryProcessor.getStuckActionCount();
+    }
+
+    /**
+     * @return number of overdue events waiting to be caught up
+     */
+    public int getCatchUpPendingCount()
+    {
+        return EntryProcessor.getCatchUpEngine().getPendingCount();
+    }
+
+    /**
+     * @return number of overdue events which have been caught up
+     */
+    public long getCatchUpReplayedCount()
+    {
+        return EntryProcessor.getCatchUpEngine().getReplayedCount();
+    }
+
+    /**
+     * @return number of caught up events which skipped actions overtaken by a later transition
+     */
+    public long getCatchUpCollapsedCount()
+    {
+        return EntryProcessor.getCatchUpEngine().getCollapsedCount();
+    }
+
+    /**
+     * the coalescer of event display message edits
+     */
+    public DisplayRefresher getDisplayRefresher()
+    {
+        return this.displayRefresher;
+    }
+
+    /**
+     * the timer wheel which holds the event actions due within the upcoming window
+     */
+    EntryTimerWheel getTimerWheel()
+    {
+        return this.timerWheel;
+    }
+
+    /**
+     * the end of the window for which event actions are held by the timer wheel
+     */
+    private static Date horizon()
+    {
+        return new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(EntryProcessor.WINDOW_MINUTES));
     }
 
     /**
@@ -5,42 +5,74 @@ import net.dv8tion.jda.api.exceptions.PermissionException;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorRegistry;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
-import ws.nmathe.saber.utils.MessageUtilities;
 
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.Collections;
-import java.util.Date;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
 
 /**
- * Used by the Main scheduler timer, a new thread is executed every minute/5minutes/1hour/1day.
- * processes all entries referenced in the collection passed in, checking the start/end time and updating the
+ * Run by the EntryManager's wake-up scheduler whenever the processing or display timer update of a type is due.
+ * loads the upcoming window of event actions into the timer wheel and updates the
  * "time until" display timers.
- * a thread is spawned for each event operation to avoid one problematic event hanging-up the class
+ * actions fired by the timer wheel are executed on a thread pool to avoid one problematic event hanging-up the class
  */
 class EntryProcessor implements Runnable
 {
-    // thread pool used to reload displays of events
-    private static ExecutorService timerExecutor = Executors.newCachedThreadPool();
+    // thread pool used to reload displays of events, a sweep which fills the queue reloads on its own thread
+    private static ExecutorService timerExecutor = Main.getExecutorRegistry().create("DisplayReload",
+            Main.getBotSettingsManager()::getDisplayWorkers, 1000, ExecutorRegistry.Saturation.CALLER_RUNS);
 
-    // thread pool used to process event announcements
-    private static ExecutorService setExecutor = Executors.newFixedThreadPool(10);
+    // how long an event action may run before it is cancelled and retried
+    private static final long ACTION_DEADLINE = TimeUnit.MINUTES.toMillis(3);
+
+    // delay before an event whose action was cancelled is retried, doubled on each consecutive cancellation
+    private static final long RETRY_BASE = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_MAX  = TimeUnit.MINUTES.toMillis(15);
+
+    // delay before an event whose action failed (or whose shard was disconnected) is retried,
+    // doubled on each consecutive failure up to RETRY_MAX
+    private static final long FAILURE_RETRY_BASE = TimeUnit.SECONDS.toMillis(15);
+
+    // workers used to process event announcements, shared fairly between guilds
+    private static ActionExecutor actionExecutor =
+            new ActionExecutor(Main.getBotSettingsManager().getActionWorkers(), ACTION_DEADLINE);
+
+    // removes expired events and their messages
+    private static EventExpirer expirer = new EventExpirer();
+
+    // replays events whose actions were missed while offline
+    private static CatchUpEngine catchUpEngine = new CatchUpEngine();
+
+    enum ActionType {END, START, REMIND, SPECIAL}
+
+    // how far ahead event actions are loaded into the timer wheel
+    static final long WINDOW_MINUTES = 60;
+
+    // actions due up to this date were loaded into the timer wheel by the last load
+    private static volatile Date loadedHorizon = new Date(0);
+
+    // number of event documents converted to scheduleEntry objects at once
+    private static final int BATCH_SIZE = 500;
 
-    private enum ActionType {END, START, REMIND, SPECIAL}
     private EntryManager.type type;
 
     // simple mechanism to avoid conflicting database updates
     // (ie. simultaneous remind() and announce() update)
     private static Set<Integer> processing = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private static Map<Integer, Date> timestamps = new ConcurrentHashMap<>();
+
+    // number of consecutive times each event's action has been cancelled
+    private static Map<Integer, Integer> cancellations = new ConcurrentHashMap<>();
+
+    // number of consecutive times each event's action has failed
+    private static Map<Integer, Integer> failures = new ConcurrentHashMap<>();
 
     /** construct the entry processor with type */
     EntryProcessor(EntryManager.type type)
@@ -58,56 +90,52 @@ class EntryProcessor implements Runnable
              */
             if(type == EntryManager.type.PROCESS)
             {
-                Logging.info(this.getClass(), "Processing entries. . .");
-                Bson query;
-
-                /*
-                 * process any event-specific announcements
-                 */
-                query = lte("announcements", new Date());
-                processEvents(ActionType.SPECIAL, query);
+                Logging.info(this.getClass(), "Loading upcoming entry actions. . .");
+                Date horizon = Date.from(Instant.now().plus(WINDOW_MINUTES, ChronoUnit.MINUTES));
 
                 /*
-                 * process events to end
+                 * load every event with its next action due before the end of the window into the timer wheel,
+                 * overdue actions are included and will fire on the next tick of the wheel
                  */
-                query = and(eq("hasStarted",true), lte("end", new Date()));
-                processEvents(ActionType.END, query);
+                Bson query = and(ShardManager.getLocalShardFilter(), lte("next_action_at", horizon));
+                long[] skipped = {horizon.getTime()};    // earliest action left unloaded
+                long overdue = System.currentTimeMillis() - CatchUpEngine.GRACE;
+                int[] caughtUp = {0};
+                Main.getDBDriver().getEventCollection().find(query)
+                        .forEach((Consumer<? super Document>) document ->
+                        {
+                            // identify which shard is responsible for the schedule
+                            String guildId = document.getString("guildId");
+                            JDA jda = Main.getShardManager().getJDA(guildId);
 
-                /*
-                 * process events to start
-                 */
-                query = and(eq("hasStarted",false), lte("start", new Date()));
-                processEvents(ActionType.START, query);
+                            // if the shard is not connected, do not load the event
+                            if (jda == null || !jda.getStatus().equals(JDA.Status.CONNECTED))
+                            {   // the next load is planned from the earliest action which was not loaded
+                                skipped[0] = Math.min(skipped[0], document.getDate("next_action_at").getTime() - 1);
+                                return;
+                            }
 
-                /*
-                 * process events with reminders
-                 */
-                query = and(
-                            and(eq("hasStarted",false), lte("reminders", new Date())),
-                            gte("start", new Date()));
-                query = or(query,
-                            and(
-                                and(eq("hasStarted",true), lte("end_reminders", new Date())),
-                                gte("end", new Date())));
-                processEvents(ActionType.REMIND, query);
+                            // actions missed while offline are replayed by the catch-up engine
+                            Integer eventId = document.getInteger("_id");
+                            if (document.getDate("next_action_at").getTime() < overdue &&
+                                    !Main.getEntryManager().getTimerWheel().contains(eventId))
+                            {
+                                if (catchUpEngine.add(document)) caughtUp[0]++;
+                                return;
+                            }
 
-                Logging.info(this.getClass(), "Currently processing "+processing.size()+" events.");
+                            Main.getEntryManager().getTimerWheel().load(document, horizon);
+                        });
 
-                // exit the bot if any event takes more than a few minutes to process
-                int timeThreshold  = 3;
-                int countThreshold = 30;
-                int count = 0;
-                for (Date value : timestamps.values())
-                {
-                    boolean flagged = value.before(Date.from(Instant.now().minus(timeThreshold, ChronoUnit.MINUTES)));
-                    if (flagged) count += 1;
-                }
-                if (count > countThreshold)
+                if (caughtUp[0] > 0)
                 {
-                    String txt = "[EXIT] There are "+count+" events that have been in processing for over "+timeThreshold+".";
-                    Logging.warn(this.getClass(), txt);
-                    System.exit(-100);
+                    Logging.info(this.getClass(), "Catching up "+caughtUp[0]+" overdue events.");
                 }
+
+                loadedHorizon = new Date(skipped[0]);
+                Logging.info(this.getClass(), "Timer wheel holds "+Main.getEntryManager().getTimerWheel().size()+" actions.");
+                Logging.info(this.getClass(), "Currently processing "+processing.size()+" events, "+
+                        actionExecutor.size()+" waiting, "+actionExecutor.getStuckCount()+" stuck.");
             }
 
             /*
@@ -142,17 +170,11 @@ class EntryProcessor implements Runnable
                 }
                 if(type == EntryManager.type.UPDATE2)
                 {   // purge expiring events
-                    query = lte("expire", Date.from(ZonedDateTime.now().plusDays(1).toInstant()));
+                    query = and(ShardManager.getLocalShardFilter(),
+                            lte("expire", Date.from(ZonedDateTime.now().plusDays(1).toInstant())));
 
-                    //delete message objects
-                    Main.getDBDriver().getEventCollection().find(query)
-                            .forEach((Consumer<? super Document>) document ->
-                    {
-                        MessageUtilities.deleteMsg((new ScheduleEntry(document)).getMessageObject(), null);
-                    });
-
-                    // bulk delete entries from the database
-                    Main.getDBDriver().getEventCollection().deleteMany(query);
+                    // delete the event messages, the events are removed once their messages are gone
+                    expirer.sweep(query);
 
                     // adjust timers
                     query = or(and(
@@ -182,7 +204,9 @@ class EntryProcessor implements Runnable
                 }
 
                 // reload entries based on the appropriate query
-                Main.getDBDriver().getEventCollection().find(query)
+                // events are converted in batches so that their schedules' settings are loaded together
+                List<Document> batch = new ArrayList<>();
+                Main.getDBDriver().getEventCollection().find(and(ShardManager.getLocalShardFilter(), query))
                         .forEach((Consumer<? super Document>) document ->
                         {
                             // identify which shard is responsible for the schedule
@@ -193,21 +217,14 @@ class EntryProcessor implements Runnable
                             if (jda == null) return;
                             if (!jda.getStatus().equals(JDA.Status.CONNECTED)) return;
 
-                            timerExecutor.execute(() ->
+                            batch.add(document);
+                            if (batch.size() >= BATCH_SIZE)
                             {
-                                try
-                                {   // convert to scheduleEntry object and update display
-                                    (new ScheduleEntry(document)).reloadDisplay();
-                                }
-                                catch (PermissionException ignored)
-                                {/* dont care */}
-                                catch(Exception e)
-                                {
-                                    Logging.warn(this.getClass(), "Error occurred while updating event timer.");
-                                    Logging.exception(this.getClass(), e);
-                                }
-                            });
+                                this.reloadDisplays(batch);
+                                batch.clear();
+                            }
                         });
+                this.reloadDisplays(batch);
 
                 Logging.info(this.getClass(), "Finished updating timers. . .");
             }
@@ -219,65 +236,179 @@ class EntryProcessor implements Runnable
     }
 
     /**
-     * fills a ActionType given a proper query, helper function to run()
-     * @param action which ActionType to ActionType the event for
-     * @param query the database query to use
+     * @return the date up to which event actions were loaded into the timer wheel
+     */
+    static Date getLoadedHorizon()
+    {
+        return loadedHorizon;
+    }
+
+    /**
+     * converts a batch of event documents to scheduleEntry objects and updates their displays
+     */
+    private void reloadDisplays(List<Document> documents)
+    {
+        Main.getEntryManager().hydrate(documents).forEach(se -> timerExecutor.execute(() ->
+        {
+            try
+            {
+                se.reloadDisplay();
+            }
+            catch (PermissionException ignored)
+            {/* dont care */}
+            catch(Exception e)
+            {
+                Logging.warn(this.getClass(), "Error occurred while updating event timer.");
+                Logging.exception(this.getClass(), e);
+            }
+        }));
+    }
+
+    /**
+     * executes an event action which has come due, the event is re-read from the database
+     * and its next action is re-determined, so only the action which is actually due is carried out
+     * @param eventId ID of the event
+     * @param guildId ID of the guild which owns the event
+     * @param action the action the event was expected to be due for, used to prioritize the event
+     * @return false if the event is already being processed and the action should be retried later
+     */
+    static boolean fire(Integer eventId, String guildId, ActionType action)
+    {
+        return fire(eventId, guildId, action, false);
+    }
+
+    /**
+     * replays an overdue event, carrying out only the action which brings the event up to date,
+     * catch-up actions are queued behind the actions which are due on time
+     * @param eventId ID of the event
+     * @param guildId ID of the guild which owns the event
+     * @return false if the event is already being processed
      */
-    private void processEvents(ActionType action, Bson query)
+    static boolean catchUp(Integer eventId, String guildId)
     {
-        Main.getDBDriver().getEventCollection().find(query)
-                .forEach((Consumer<? super Document>) document ->
+        return fire(eventId, guildId, ActionType.SPECIAL, true);
+    }
+
+    private static boolean fire(Integer eventId, String guildId, ActionType action, boolean collapse)
+    {
+        if (!processing.add(eventId)) return false;
+
+        // set when the action could not be carried out and should be retried
+        boolean[] failed = new boolean[1];
+        actionExecutor.execute(action, guildId, () ->
+        {
+            String title = null;
+            try
+            {
+                Date now = new Date();
+                Document document = Main.getDBDriver().getEventCollection()
+                        .find(and(eq("_id", eventId), lte("next_action_at", now))).first();
+                if (document == null) return;   // the action is no longer due
+
+                NextAction next = NextAction.of(document, now);
+                if (collapse)
                 {
-                    // identify which shard is responsible for the schedule
-                    String guildId = document.getString("guildId");
-                    JDA jda = Main.getShardManager().getJDA(guildId);
-
-                    // if the shard is not connected, do process the event
-                    if(jda == null) return;
-                    if (!jda.getStatus().equals(JDA.Status.CONNECTED)) return;
-
-                    ScheduleEntry se = (new ScheduleEntry(document));
-                    Integer id = se.getId();
-                    if (processing.add(id))
-                    {
-                        timestamps.put(id, new Date());
-                        setExecutor.submit(() ->
-                        {
-                            try
-                            {
-                                switch(action)
-                                {
-                                    case END:
-                                        se.end();
-                                        break;
-                                    case START:
-                                        se.start();
-                                        break;
-                                    case REMIND:
-                                        se.remind();
-                                        break;
-                                    case SPECIAL:
-                                        se.announce();
-                                        break;
-                                }
-                            }
-                            catch (PermissionException e)
-                            {
-                                Logging.warn(this.getClass(),
-                                        "Permission error on '"+se.getTitle()+"' ["+se.getId()+"]: "+e.getMessage());
-                            }
-                            catch (Exception e)
-                            {
-                                Logging.warn(this.getClass(), "Error occurred when processing event action!");
-                                Logging.exception(this.getClass(), e);
-                            }
-                            finally
-                            {
-                                timestamps.remove(id);
-                                processing.remove(id);
-                            }
-                        });
-                    }
-                });
+                    NextAction latest = NextAction.collapse(document, now);
+                    if (latest != null && !latest.equals(next)) catchUpEngine.collapsed();
+                    next = latest;
+                }
+                if (next == null || next.due.after(now)) return;
+
+                // identify which shard is responsible for the schedule
+                JDA jda = Main.getShardManager().getJDA(document.getString("guildId"));
+
+                // if the shard is not connected, do not process the event until it has reconnected
+                if (jda == null || !jda.getStatus().equals(JDA.Status.CONNECTED))
+                {
+                    failed[0] = true;
+                    return;
+                }
+
+                ScheduleEntry se = (new ScheduleEntry(document));
+                title = se.getTitle();
+                switch(next.type)
+                {
+                    case END:
+                        se.end(next.due);
+                        break;
+                    case START:
+                        se.start(next.due);
+                        break;
+                    case REMIND:
+                        se.remind(next.due);
+                        break;
+                    case SPECIAL:
+                        se.announce(next.due);
+                        break;
+                }
+            }
+            catch (PermissionException e)
+            {
+                Logging.warn(EntryProcessor.class,
+                        "Permission error on '"+title+"' ["+eventId+"]: "+e.getMessage());
+            }
+            catch (Exception e)
+            {
+                Logging.warn(EntryProcessor.class, "Error occurred when processing event action!");
+                Logging.exception(EntryProcessor.class, e);
+                failed[0] = true;
+            }
+        }, () ->
+        {
+            cancellations.remove(eventId);
+            processing.remove(eventId);
+            if (failed[0])
+            {   // the event's action is behind the loaded horizon, so no later load would pick it up again
+                int count = failures.merge(eventId, 1, Integer::sum);
+                long delay = Math.min(FAILURE_RETRY_BASE << Math.min(count - 1, 10), RETRY_MAX);
+                Main.getEntryManager().getTimerWheel().retry(eventId, guildId, action,
+                        System.currentTimeMillis() + delay);
+            }
+            else
+            {
+                failures.remove(eventId);
+            }
+        }, () ->
+        {   // the action overran its deadline, release the event and retry it later
+            int count = cancellations.merge(eventId, 1, Integer::sum);
+            long delay = Math.min(RETRY_BASE << Math.min(count - 1, 10), RETRY_MAX);
+            Logging.warn(EntryProcessor.class, "Cancelled "+action+" of event ["+eventId+"] after "+
+                    ACTION_DEADLINE/1000+" seconds, retrying in "+delay/1000+" seconds.");
+            processing.remove(eventId);
+            Main.getEntryManager().getTimerWheel().retry(eventId, guildId, action, System.currentTimeMillis() + delay);
+        });
+        return true;
+    }
+
+    /**
+     * @return the engine which replays events missed while offline
+     */
+    static CatchUpEngine getCatchUpEngine()
+    {
+        return catchUpEngine;
+    }
+
+    /**
+     * @return number of fired actions waiting for a worker
+     */
+    static int getQueuedActionCount()
+    {
+        return actionExecutor.size();
+    }
+
+    /**
+     * @return number of actions cancelled for overrunning their deadline
+     */
+    static long getCancelledActionCount()
+    {
+        return actionExecutor.getCancelledCount();
+    }
+
+    /**
+     * @return number of cancelled actions which have still not returned
+     */
+    static int getStuckActionCount()
+    {
+        return actionExecutor.getStuckCount();
     }
 }
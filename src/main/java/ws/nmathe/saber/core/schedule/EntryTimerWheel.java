@@ -0,0 +1,275 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel which holds the next action (start, end, reminder, or announcement)
+ * of every event due within the upcoming window and hands it to the EntryProcessor at its due time.
+ * The wheel is filled by the EntryProcessor(PROCESS) loader and kept current by writes made through
+ * the EntryManager; a fired action is always re-validated against the database before it is executed.
+ */
+class EntryTimerWheel
+{
+    private static final long TICK_MILLIS = 1000;   // resolution of the innermost wheel
+    private static final int SLOT_BITS    = 6;      // 64 slots per wheel
+    private static final int SLOTS        = 1 << SLOT_BITS;
+    private static final int LEVELS       = 3;      // wheels spanning ~1 minute, ~1 hour, and ~3 days
+    private static final long RETRY_DELAY = 5000;   // delay before re-firing an action whose event was busy
+
+    private final List<List<List<Timer>>> wheels = new ArrayList<>();
+    private final List<Timer> overflow = new ArrayList<>();   // timers beyond the outermost wheel
+    private final List<Timer> expired  = new ArrayList<>();   // timers which were already due when added
+    private final Map<Integer, Timer> timerByEvent = new HashMap<>();       // the single timer held per event
+    private long currentTick;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("TimerWheel-%d").build());
+
+    /** construct an empty wheel positioned at the current time */
+    EntryTimerWheel()
+    {
+        for (int level=0; level<LEVELS; level++)
+        {
+            List<List<Timer>> wheel = new ArrayList<>();
+            for (int slot=0; slot<SLOTS; slot++)
+            {
+                wheel.add(new ArrayList<>());
+            }
+            this.wheels.add(wheel);
+        }
+        this.currentTick = System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    /**
+     * starts the thread which advances the wheel once every tick
+     */
+    void init()
+    {
+        this.ticker.scheduleAtFixedRate(() ->
+        {
+            try
+            {
+                this.advance();
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * adds the event document's next action to the wheel if it is due before the horizon
+     * and is not already held by the wheel, used when loading the upcoming window from the database
+     * @param document event document from the events collection
+     * @param horizon actions due after this date are ignored
+     */
+    synchronized void load(Document document, Date horizon)
+    {
+        Date due = document.getDate("next_action_at");
+        String type = document.getString("next_action_type");
+        if (due == null || type == null || due.after(horizon)) return;
+
+        Timer timer = new Timer(document.getInteger("_id"), document.getString("guildId"),
+                EntryProcessor.ActionType.valueOf(type), due.getTime());
+        if (!timer.equals(this.timerByEvent.get(timer.eventId)))
+        {
+            this.cancel(timer.eventId);
+            this.add(timer);
+        }
+    }
+
+    /**
+     * replaces the timer held for an event with its new next action,
+     * used whenever an event is written through the EntryManager
+     * @param eventId ID of the event
+     * @param guildId ID of the guild which owns the event
+     * @param next the next action of the event as it was written to the database
+     * @param horizon actions due after this date are ignored
+     */
+    synchronized void schedule(Integer eventId, String guildId, NextAction next, Date horizon)
+    {
+        this.cancel(eventId);
+        if (next != null && !next.due.after(horizon))
+        {
+            this.add(new Timer(eventId, guildId, next.type, next.due.getTime()));
+        }
+    }
+
+    /**
+     * adds a timer for an event unless the wheel already holds a timer for the event,
+     * used to retry an action which could not be carried out
+     * @param eventId ID of the event
+     * @param guildId ID of the guild which owns the event
+     * @param action the action to retry
+     * @param due epoch milliseconds at which to retry the action
+     */
+    synchronized void retry(Integer eventId, String guildId, EntryProcessor.ActionType action, long due)
+    {
+        if (!this.timerByEvent.containsKey(eventId))
+        {
+            this.add(new Timer(eventId, guildId, action, due));
+        }
+    }
+
+    /**
+     * drops the timer held for an event
+     * @param eventId ID of the event
+     */
+    synchronized void cancel(Integer eventId)
+    {
+        Timer timer = this.timerByEvent.remove(eventId);
+        if (timer != null)
+        {
+            timer.cancelled = true;
+        }
+    }
+
+    /**
+     * @return true if the wheel holds a timer for the event
+     */
+    synchronized boolean contains(Integer eventId)
+    {
+        return this.timerByEvent.containsKey(eventId);
+    }
+
+    /**
+     * @return the number of timers currently held by the wheel
+     */
+    synchronized int size()
+    {
+        return this.timerByEvent.size();
+    }
+
+    /**
+     * places a timer into the innermost wheel which can hold it
+     * must be called while holding the wheel's lock
+     */
+    private void add(Timer timer)
+    {
+        this.timerByEvent.put(timer.eventId, timer);
+        this.place(timer);
+    }
+
+    private void place(Timer timer)
+    {
+        long dueTick = timer.due / TICK_MILLIS;
+        if (dueTick <= this.currentTick)
+        {
+            this.expired.add(timer);
+            return;
+        }
+        for (int level=0; level<LEVELS; level++)
+        {
+            int shift = level * SLOT_BITS;
+            if ((dueTick >> shift) - (this.currentTick >> shift) < SLOTS)
+            {
+                this.wheels.get(level).get((int) ((dueTick >> shift) & (SLOTS - 1))).add(timer);
+                return;
+            }
+        }
+        this.overflow.add(timer);
+    }
+
+    /**
+     * moves the wheel forward to the current time, cascading outer wheels into the inner wheels
+     * and firing every timer whose tick has been reached
+     */
+    private void advance()
+    {
+        List<Timer> due = new ArrayList<>();
+        synchronized (this)
+        {
+            due.addAll(this.expired);
+            this.expired.clear();
+
+            long nowTick = System.currentTimeMillis() / TICK_MILLIS;
+            while (this.currentTick < nowTick)
+            {
+                this.currentTick++;
+                for (int level=LEVELS-1; level>0; level--)
+                {
+                    int shift = level * SLOT_BITS;
+                    if ((this.currentTick & ((1L << shift) - 1)) == 0)
+                    {
+                        if (level == LEVELS-1)
+                        {
+                            this.cascade(this.overflow);
+                        }
+                        this.cascade(this.wheels.get(level).get((int) ((this.currentTick >> shift) & (SLOTS - 1))));
+                    }
+                }
+                List<Timer> slot = this.wheels.get(0).get((int) (this.currentTick & (SLOTS - 1)));
+                due.addAll(slot);
+                slot.clear();
+                due.addAll(this.expired);
+                this.expired.clear();
+            }
+
+            due.removeIf(timer -> timer.cancelled);
+            due.forEach(timer -> this.timerByEvent.remove(timer.eventId, timer));
+        }
+
+        for (Timer timer : due)
+        {
+            if (!EntryProcessor.fire(timer.eventId, timer.guildId, timer.action))
+            {   // the event is still being processed for an earlier action, try again shortly
+                this.retry(timer.eventId, timer.guildId, timer.action, System.currentTimeMillis() + RETRY_DELAY);
+            }
+        }
+    }
+
+    /**
+     * re-places all timers of an outer wheel slot into the inner wheels
+     */
+    private void cascade(List<Timer> slot)
+    {
+        List<Timer> timers = new ArrayList<>(slot);
+        slot.clear();
+        for (Timer timer : timers)
+        {
+            if (!timer.cancelled) this.place(timer);
+        }
+    }
+
+    /**
+     * a single event action due at an instant
+     */
+    private static class Timer
+    {
+        final Integer eventId;
+        final String guildId;
+        final EntryProcessor.ActionType action;
+        final long due;
+        boolean cancelled = false;
+
+        Timer(Integer eventId, String guildId, EntryProcessor.ActionType action, long due)
+        {
+            this.eventId = eventId;
+            this.guildId = guildId;
+            this.action = action;
+            this.due = due;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Timer)) return false;
+            Timer other = (Timer) o;
+            return this.eventId.equals(other.eventId) && this.action == other.action && this.due == other.due;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.eventId, this.action, this.due);
+        }
+    }
+}
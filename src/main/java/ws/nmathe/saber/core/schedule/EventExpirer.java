@@ -0,0 +1,219 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.collect.Lists;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.exceptions.PermissionException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.utils.MiscUtil;
+import net.dv8tion.jda.api.utils.TimeUtil;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+import ws.nmathe.saber.utils.MessageDispatcher;
+
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Removes expired events, deleting the messages of each channel as one batch.
+ * Messages younger than two weeks are removed with bulk deletes of up to 100 messages where the bot may manage
+ * messages, the others are deleted one at a time on the lowest priority lane of the message dispatcher.
+ * An event is removed from the database only once its message is gone, so an event whose message could not be
+ * deleted is retried by the next sweep; events already being expired are skipped by overlapping sweeps.
+ */
+class EventExpirer
+{
+    private static final int BULK_MAX = 100;
+    private static final long BULK_MAX_AGE_DAYS = 13;   // discord rejects bulk deletes of messages older than 14 days
+
+    private final Set<Integer> expiring = ConcurrentHashMap.newKeySet();     // events with deletes in flight
+
+    /**
+     * deletes the messages of the expired events and then the events
+     * @param query selects the expired events
+     */
+    void sweep(Bson query)
+    {
+        Map<String, List<Document>> byChannel = new HashMap<>();
+        Main.getDBDriver().getEventCollection().find(query)
+                .projection(fields(include("_id", "messageId", "channelId", "guildId")))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    if (!this.expiring.add(document.getInteger("_id"))) return;
+                    byChannel.computeIfAbsent(document.getString("channelId"), k -> new ArrayList<>()).add(document);
+                });
+        if (byChannel.isEmpty()) return;
+
+        int count = byChannel.values().stream().mapToInt(List::size).sum();
+        Logging.info(this.getClass(), "Expiring " + count + " events on " + byChannel.size() + " channels.");
+        for (Map.Entry<String, List<Document>> entry : byChannel.entrySet())
+        {
+            try
+            {
+                this.expire(entry.getKey(), entry.getValue());
+            }
+            catch (Exception e)
+            {
+                entry.getValue().forEach(document -> this.expiring.remove(document.getInteger("_id")));
+                Logging.exception(this.getClass(), e);
+            }
+        }
+    }
+
+    /**
+     * deletes the messages of a channel's expired events
+     */
+    private void expire(String channelId, List<Document> documents)
+    {
+        String guildId = documents.get(0).getString("guildId");
+        JDA jda = Main.getShardManager().getJDA(guildId);
+        if (jda == null || !jda.getStatus().equals(JDA.Status.CONNECTED))
+        {   // the shard is not connected, leave the events for a later sweep
+            documents.forEach(document -> this.expiring.remove(document.getInteger("_id")));
+            return;
+        }
+
+        ChannelSweep sweep = new ChannelSweep(documents.size());
+        TextChannel channel = jda.getTextChannelById(channelId);
+        List<Document> recent = new ArrayList<>();
+        List<Document> old = new ArrayList<>();
+        OffsetDateTime cutoff = OffsetDateTime.now().minusDays(BULK_MAX_AGE_DAYS);
+        for (Document document : documents)
+        {
+            String messageId = document.getString("messageId");
+            if (channel == null || messageId == null)
+            {   // there is no message to delete
+                sweep.done(document, true);
+            }
+            else if (TimeUtil.getTimeCreated(MiscUtil.parseSnowflake(messageId)).isAfter(cutoff))
+            {
+                recent.add(document);
+            }
+            else
+            {
+                old.add(document);
+            }
+        }
+        if (channel == null) return;
+
+        if (recent.size() > 1 && channel.getGuild().getSelfMember().hasPermission(channel, Permission.MESSAGE_MANAGE))
+        {
+            for (List<Document> chunk : Lists.partition(recent, BULK_MAX))
+            {
+                this.bulkDelete(channel, chunk, sweep);
+            }
+        }
+        else
+        {
+            old.addAll(recent);
+        }
+        for (Document document : old)
+        {
+            this.delete(channel, document, sweep);
+        }
+    }
+
+    /**
+     * deletes up to 100 messages with a single request, falling back to single deletes if the request fails
+     */
+    private void bulkDelete(TextChannel channel, List<Document> chunk, ChannelSweep sweep)
+    {
+        if (chunk.size() == 1)
+        {   // bulk deletes take at least two messages
+            this.delete(channel, chunk.get(0), sweep);
+            return;
+        }
+
+        List<String> messageIds = new ArrayList<>();
+        chunk.forEach(document -> messageIds.add(document.getString("messageId")));
+        Main.getMessageDispatcher().send(channel, MessageDispatcher.Priority.LOG,
+                () -> channel.deleteMessagesByIds(messageIds),
+                ignored -> chunk.forEach(document -> sweep.done(document, true)),
+                e -> chunk.forEach(document -> this.delete(channel, document, sweep)));
+    }
+
+    /**
+     * deletes a single message, a message which no longer exists or which the bot may not delete
+     * will never be deleted and its event is removed
+     */
+    private void delete(TextChannel channel, Document document, ChannelSweep sweep)
+    {
+        String messageId = document.getString("messageId");
+        Main.getMessageDispatcher().send(channel, MessageDispatcher.Priority.LOG,
+                () -> channel.deleteMessageById(messageId),
+                ignored -> sweep.done(document, true),
+                e ->
+                {
+                    boolean terminal = e instanceof PermissionException || (e instanceof ErrorResponseException &&
+                            (((ErrorResponseException) e).getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE ||
+                             ((ErrorResponseException) e).getErrorResponse() == ErrorResponse.MISSING_ACCESS));
+                    if (!terminal)
+                    {
+                        Logging.warn(this.getClass(), "Unable to delete message " + messageId + ": " + e.getMessage());
+                    }
+                    sweep.done(document, terminal);
+                });
+    }
+
+    /**
+     * tracks the expired events of a channel, removing the events whose messages are gone once all have completed
+     */
+    private class ChannelSweep
+    {
+        private final AtomicInteger remaining;
+        private final Queue<Integer> removed = new ConcurrentLinkedQueue<>();
+
+        ChannelSweep(int size)
+        {
+            this.remaining = new AtomicInteger(size);
+        }
+
+        /**
+         * @param document the event
+         * @param remove true if the event's message is gone and the event should be removed
+         */
+        void done(Document document, boolean remove)
+        {
+            Integer eventId = document.getInteger("_id");
+            if (remove)
+            {
+                this.removed.add(eventId);
+                String messageId = document.getString("messageId");
+                if (messageId != null) Main.getEntryManager().getMessageIndex().remove(messageId);
+            }
+            else
+            {
+                expiring.remove(eventId);
+            }
+
+            if (this.remaining.decrementAndGet() == 0 && !this.removed.isEmpty())
+            {
+                List<Integer> eventIds = new ArrayList<>(this.removed);
+                try
+                {
+                    Main.getDBDriver().getEventCollection().deleteMany(in("_id", eventIds));
+                }
+                catch (Exception e)
+                {
+                    Logging.exception(EventExpirer.class, e);
+                }
+                finally
+                {
+                    expiring.removeAll(eventIds);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Compact in-memory index of the display message IDs of all events, mapping message snowflakes to event IDs.
+ * Backed by an open-addressing table of primitive longs and ints so that it can be held for every event.
+ * Used to reject message deletes and reactions which do not concern an event message without a database lookup.
+ * The index may hold stale mappings (ie. for events removed in bulk), so a hit must always be confirmed against
+ * the database; a miss is only trusted once the index has been loaded.
+ */
+public class EventMessageIndex
+{
+    private static final long FREE = 0L;          // snowflakes are never zero
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private boolean loaded = false;
+    private List<Object[]> journal = null;        // changes made while the index is being rebuilt
+
+    /**
+     * (re)loads the index from the events collection,
+     * changes made while the collection is being read are replayed onto the new table
+     */
+    void rebuild()
+    {
+        synchronized (this)
+        {
+            this.journal = new ArrayList<>();
+        }
+        try
+        {
+            EventMessageIndex fresh = new EventMessageIndex();
+            Main.getDBDriver().getEventCollection().find(ShardManager.getLocalShardFilter())
+                    .projection(fields(include("_id", "messageId")))
+                    .forEach((Consumer<? super Document>) document ->
+                            fresh.put(document.getString("messageId"), document.getInteger("_id")));
+
+            synchronized (this)
+            {
+                for (Object[] change : this.journal)
+                {
+                    if (change[1] == null) fresh.remove((String) change[0]);
+                    else fresh.put((String) change[0], (Integer) change[1]);
+                }
+                this.keys = fresh.keys;
+                this.values = fresh.values;
+                this.size = fresh.size;
+                this.loaded = true;
+            }
+            Logging.info(this.getClass(), "Indexed "+fresh.size+" event messages.");
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * @param messageId ID of a discord message
+     * @return false only if the message is certainly not the display message of an event
+     */
+    public synchronized boolean mightContain(String messageId)
+    {
+        return !this.loaded || this.getEventId(messageId) != null;
+    }
+
+    /**
+     * @param messageId ID of a discord message
+     * @return the ID of the event last known to be displayed by the message, or null
+     */
+    public synchronized Integer getEventId(String messageId)
+    {
+        long key = parse(messageId);
+        if (key == FREE) return null;
+        int slot = this.find(key);
+        return this.keys[slot] == key ? this.values[slot] : null;
+    }
+
+    /**
+     * @return number of messages held by the index
+     */
+    public synchronized int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * maps an event display message to its event
+     */
+    synchronized void put(String messageId, Integer eventId)
+    {
+        long key = parse(messageId);
+        if (key == FREE || eventId == null) return;
+        if (this.journal != null) this.journal.add(new Object[]{messageId, eventId});
+
+        int slot = this.find(key);
+        if (this.keys[slot] == FREE)
+        {
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] = eventId;
+
+        if (this.size * 2 > this.keys.length) this.resize();   // keep the table at most half full
+    }
+
+    /**
+     * removes a message from the index
+     */
+    public synchronized void remove(String messageId)
+    {
+        long key = parse(messageId);
+        if (key == FREE) return;
+        if (this.journal != null) this.journal.add(new Object[]{messageId, null});
+
+        int slot = this.find(key);
+        if (this.keys[slot] == FREE) return;
+        this.keys[slot] = FREE;
+        this.size--;
+
+        // shift back any following entries which would otherwise become unreachable
+        int mask = this.keys.length - 1;
+        int next = (slot + 1) & mask;
+        while (this.keys[next] != FREE)
+        {
+            int home = hash(this.keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask))
+            {
+                this.keys[slot] = this.keys[next];
+                this.values[slot] = this.values[next];
+                this.keys[next] = FREE;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    /**
+     * linear probe for the slot holding the key, or the free slot where it would be placed
+     */
+    private int find(long key)
+    {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != FREE && this.keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize()
+    {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new long[oldKeys.length * 2];
+        this.values = new int[oldValues.length * 2];
+        for (int i=0; i<oldKeys.length; i++)
+        {
+            if (oldKeys[i] != FREE)
+            {
+                int slot = this.find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key)
+    {   // the low bits of a snowflake are an increment, mix in the timestamp bits
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long parse(String messageId)
+    {
+        if (messageId == null) return FREE;
+        try
+        {
+            return Long.parseUnsignedLong(messageId);
+        }
+        catch (NumberFormatException e)
+        {
+            return FREE;
+        }
+    }
+}
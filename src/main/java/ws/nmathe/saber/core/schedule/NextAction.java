@@ -0,0 +1,140 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The earliest action (start, end, reminder, or special announcement) due for an event.
+ * Stored on every event document as the 'next_action_at' and 'next_action_type' fields
+ * so that due work can be found with a single indexed range query.
+ */
+class NextAction
+{
+    final EntryProcessor.ActionType type;
+    final Date due;
+
+    private NextAction(EntryProcessor.ActionType type, Date due)
+    {
+        this.type = type;
+        this.due = due;
+    }
+
+    /**
+     * determines the next action of an event from its database document
+     * @param document event document from the events collection
+     * @param now reminders are ignored once the start (or end) they precede is no longer in the future
+     * @return the next action, or null if the document is missing its start or end
+     */
+    @SuppressWarnings("unchecked")
+    static NextAction of(Document document, Date now)
+    {
+        return of(document.getBoolean("hasStarted", false),
+                document.getDate("start"),
+                document.getDate("end"),
+                (List<Date>) document.get("reminders"),
+                (List<Date>) document.get("end_reminders"),
+                (List<Date>) document.get("announcements"),
+                now);
+    }
+
+    /**
+     * determines the next action of an event
+     * @param se the event
+     * @param now reminders are ignored once the start (or end) they precede is no longer in the future
+     * @return the next action
+     */
+    static NextAction of(ScheduleEntry se, Date now)
+    {
+        return of(se.hasStarted(),
+                Date.from(se.getStart().toInstant()),
+                Date.from(se.getEnd().toInstant()),
+                se.getReminders(),
+                se.getEndReminders(),
+                se.getAnnouncements(),
+                now);
+    }
+
+    /**
+     * determines the single action which brings an overdue event up to date,
+     * a start or end transition which has come due replaces the overdue reminders and transitions before it
+     * (ie. a reminder followed by a start followed by an end becomes only the end)
+     * @param document event document from the events collection
+     * @param now the present
+     * @return the action, or null if the document is missing its start or end
+     */
+    static NextAction collapse(Document document, Date now)
+    {
+        boolean hasStarted = document.getBoolean("hasStarted", false);
+        Date start = document.getDate("start");
+        Date end = document.getDate("end");
+        if (start == null || end == null) return null;
+
+        if (hasStarted && !end.after(now))
+        {
+            return new NextAction(EntryProcessor.ActionType.END, end);
+        }
+        if (!hasStarted && !start.after(now))
+        {   // an event without duration is ended by its start transition
+            return end.after(now) || start.equals(end) ?
+                    new NextAction(EntryProcessor.ActionType.START, start) :
+                    new NextAction(EntryProcessor.ActionType.END, end);
+        }
+        return of(document, now);
+    }
+
+    private static NextAction of(boolean hasStarted, Date start, Date end, Collection<Date> reminders,
+                                 Collection<Date> endReminders, Collection<Date> announcements, Date now)
+    {
+        if (start == null || end == null) return null;
+
+        // an event which has not started is waiting on its start, otherwise on its end
+        Date boundary = hasStarted ? end : start;
+        Collection<Date> boundaryReminders = hasStarted ? endReminders : reminders;
+
+        // on ties reminders go first, then announcements, then the start/end transition
+        NextAction next = null;
+        if (boundaryReminders != null && boundary.after(now))
+        {
+            for (Date date : boundaryReminders)
+            {
+                if (!date.after(boundary))
+                    next = earliest(next, EntryProcessor.ActionType.REMIND, date);
+            }
+        }
+        if (announcements != null)
+        {
+            for (Date date : announcements)
+            {
+                next = earliest(next, EntryProcessor.ActionType.SPECIAL, date);
+            }
+        }
+        return earliest(next, hasStarted ? EntryProcessor.ActionType.END : EntryProcessor.ActionType.START, boundary);
+    }
+
+    private static NextAction earliest(NextAction current, EntryProcessor.ActionType type, Date due)
+    {
+        if (due == null) return current;
+        if (current == null || due.before(current.due))
+        {
+            return new NextAction(type, due);
+        }
+        return current;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof NextAction)) return false;
+        NextAction other = (NextAction) o;
+        return this.type == other.type && this.due.equals(other.due);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * this.type.hashCode() + this.due.hashCode();
+    }
+}
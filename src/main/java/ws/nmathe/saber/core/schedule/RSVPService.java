@@ -0,0 +1,196 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
+import net.dv8tion.jda.api.exceptions.PermissionException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.addToSet;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.pull;
+
+/**
+ * Applies RSVP reactions to events with atomic $addToSet/$pull updates on the event document,
+ * so that simultaneous RSVPs on one event can never overwrite each other.
+ * RSVP group limits are enforced by the update's filter, and reactions on the same message are
+ * processed one at a time by hashing the message ID onto a fixed set of single-threaded executors.
+ */
+public class RSVPService
+{
+    private static final int STRIPES = 8;
+
+    private final ExecutorService[] stripes = new ExecutorService[STRIPES];
+
+    public RSVPService()
+    {
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder().setNameFormat("RSVP-%d");
+        for (int i=0; i<STRIPES; i++)
+        {
+            this.stripes[i] = Executors.newSingleThreadExecutor(builder.build());
+        }
+    }
+
+    /**
+     * queues a reaction added to an event message on an RSVP enabled schedule,
+     * the reaction is removed if it was an RSVP emoji
+     * @param event the reaction event
+     */
+    public void handleReaction(MessageReactionAddEvent event)
+    {
+        this.stripes[Math.floorMod(event.getMessageId().hashCode(), STRIPES)].execute(() ->
+        {
+            try
+            {
+                Document doc = Main.getDBDriver().getEventCollection()
+                        .find(eq("messageId", event.getMessageId())).first();
+                if (doc == null) return;
+
+                ScheduleEntry se = new ScheduleEntry(doc);
+                boolean removeReaction = se.handleRSVPReaction(event);
+                if (removeReaction)
+                {
+                    // attempt to remove the reaction
+                    Consumer<Throwable> errorProcessor = e ->
+                    {
+                        if(!(e instanceof PermissionException))
+                        {
+                            Logging.exception(this.getClass(), e);
+                        }
+                    };
+                    event.getReaction().removeReaction(event.getUser()).queue(null, errorProcessor);
+                }
+            }
+            catch (PermissionException ignored) { }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        });
+    }
+
+    /**
+     * adds a user to an RSVP group of an event, unless the group is full or the user is already a member
+     * @param se the event
+     * @param group the RSVP group to join
+     * @param userId ID of the user
+     * @param otherGroups groups which the user should be removed from
+     * @return true if the user joined the group, false otherwise
+     */
+    boolean join(ScheduleEntry se, String group, String userId, Collection<String> otherGroups)
+    {
+        if (!isFieldName(group) || !otherGroups.stream().allMatch(RSVPService::isFieldName))
+        {   // groups which cannot be used in a field path must be rewritten with the whole member map
+            return this.legacyJoin(se, group, userId, otherGroups);
+        }
+
+        List<Bson> filters = new ArrayList<>();
+        filters.add(eq("_id", se.getId()));
+        filters.add(ne("rsvp_members."+group, userId));
+        int limit = se.getRsvpLimit(group);
+        if (limit == 0) return false;
+        if (limit > 0)
+        {   // the group has room only if its array does not yet have an element at position limit-1
+            filters.add(exists("rsvp_members."+group+"."+(limit-1), false));
+        }
+
+        List<Bson> updates = new ArrayList<>();
+        updates.add(addToSet("rsvp_members."+group, userId));
+        for (String other : otherGroups)
+        {
+            updates.add(pull("rsvp_members."+other, userId));
+        }
+
+        return this.apply(se, and(filters), combine(updates));
+    }
+
+    /**
+     * removes a user from all RSVP groups of an event
+     * @param se the event
+     * @param userId ID of the user
+     * @param groups all RSVP groups of the event's schedule
+     * @return true if the user was removed from at least one group
+     */
+    boolean rescind(ScheduleEntry se, String userId, Collection<String> groups)
+    {
+        if (groups.isEmpty()) return false;
+        if (!groups.stream().allMatch(RSVPService::isFieldName))
+        {
+            return this.legacyRescind(se, userId, groups);
+        }
+
+        List<Bson> members = new ArrayList<>();
+        List<Bson> updates = new ArrayList<>();
+        for (String group : groups)
+        {
+            members.add(eq("rsvp_members."+group, userId));
+            updates.add(pull("rsvp_members."+group, userId));
+        }
+        return this.apply(se, and(eq("_id", se.getId()), or(members)), combine(updates));
+    }
+
+    /**
+     * applies an RSVP update and refreshes the event with the resulting member lists
+     * @return false if the filter did not match the event
+     */
+    @SuppressWarnings("unchecked")
+    private boolean apply(ScheduleEntry se, Bson filter, Bson update)
+    {
+        Document updated = Main.getDBDriver().getEventCollection().findOneAndUpdate(filter, update,
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (updated == null) return false;
+
+        Map<String, List<String>> members = (Map<String, List<String>>) updated.get("rsvp_members");
+        se.refreshRsvpMembers(members == null ? new LinkedHashMap<>() : members);
+        se.reloadDisplay();
+        return true;
+    }
+
+    private boolean legacyJoin(ScheduleEntry se, String group, String userId, Collection<String> otherGroups)
+    {
+        if (se.isFull(group)) return false;
+        Set<String> members = se.getRsvpMembersOfType(group);
+        if (!members.add(userId)) return false;
+        se.setRsvpMembers(group, members);
+        for (String other : otherGroups)
+        {
+            members = se.getRsvpMembersOfType(other);
+            if (members.remove(userId)) se.setRsvpMembers(other, members);
+        }
+        return Main.getEntryManager().updateEntry(se, false);
+    }
+
+    private boolean legacyRescind(ScheduleEntry se, String userId, Collection<String> groups)
+    {
+        boolean atLeastOne = false;
+        for (String group : groups)
+        {
+            Set<String> members = se.getRsvpMembersOfType(group);
+            if (members.remove(userId))
+            {
+                se.setRsvpMembers(group, members);
+                atLeastOne = true;
+            }
+        }
+        if (atLeastOne) Main.getEntryManager().updateEntry(se, false);
+        return atLeastOne;
+    }
+
+    /**
+     * can the RSVP group name be used as a key in a field path?
+     */
+    private static boolean isFieldName(String group)
+    {
+        return !group.isEmpty() && !group.contains(".") && !group.startsWith("$");
+    }
+}
@@ -1,11 +1,14 @@
 package ws.nmathe.saber.core.schedule;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
 import net.dv8tion.jda.api.exceptions.PermissionException;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.MessageDispatcher;
 import ws.nmathe.saber.utils.MessageUtilities;
 import ws.nmathe.saber.utils.ParsingUtilities;
 import ws.nmathe.saber.utils.Logging;
@@ -16,6 +19,7 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -28,6 +32,16 @@ import java.util.stream.Stream;
  */
 public class ScheduleEntry
 {
+    // recently retrieved display messages, only used by the flows which need the Message itself
+    // (displays and announcements act on the message by ID)
+    private static final Cache<String, Message> messageCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    // how long actions are kept in an event's ledger
+    private static final long LEDGER_RETENTION = TimeUnit.DAYS.toMillis(7);
+
     // identifiers
     private Integer entryId;                      // 16 bit identifier
     private String msgId;
@@ -35,6 +49,17 @@ public class ScheduleEntry
     private String guildId;
     private String googleId;
 
+    // copy of the event's document as last read from or written to the database,
+    // used by the EntryManager to write only the fields which have changed
+    private Document persisted;
+
+    // actions carried out for the event keyed by action and due time (ie. "START@<epoch ms>"),
+    // true once the action's announcement has been sent or if it had none to send
+    private Map<String, Boolean> ledger;
+    private String claim;   // ledger key recorded by the next write, which fails if the key is already recorded
+    private List<String> expiredLedgerKeys = new ArrayList<>();  // removed by the next write
+    private List<Document> claimOutbox = new ArrayList<>();      // announcements of the claimed action
+
     // entry parameters
     private String title;                    // the title/name of the event
     private ZonedDateTime start;             // the time when the event starts
@@ -118,6 +143,7 @@ public class ScheduleEntry
 
         // misc
         this.hasStarted = false;
+        this.ledger     = new LinkedHashMap<>();
         this.location   = null;
         this.colorCode  = null;
         this.nonEmbeded = null;
@@ -135,8 +161,19 @@ public class ScheduleEntry
      * Constructor for a fully initialized ScheduleEntry
      * @param entryDocument (Document) taken from the events collection in the database backing the bot
      */
-    @SuppressWarnings("unchecked")
     public ScheduleEntry(Document entryDocument)
+    {
+        this(entryDocument, Main.getScheduleManager().getTimeZone(entryDocument.getString("channelId")));
+    }
+
+    /**
+     * Constructor for a fully initialized ScheduleEntry whose schedule timezone is already known,
+     * used when building many entries at once (see EntryManager.hydrate)
+     * @param entryDocument (Document) taken from the events collection in the database backing the bot
+     * @param zone (ZoneId) timezone of the event's schedule
+     */
+    @SuppressWarnings("unchecked")
+    ScheduleEntry(Document entryDocument, ZoneId zone)
     {
         // identifiers
         this.entryId  = entryDocument.getInteger("_id");
@@ -145,9 +182,6 @@ public class ScheduleEntry
         this.guildId  = (String) entryDocument.get("guildId");
         this.googleId = (String) entryDocument.get("googleId");
 
-        // entry zone information
-        ZoneId zone = Main.getScheduleManager().getTimeZone(this.chanId);
-
         // main parameters
         this.title       = entryDocument.getString("title");
         this.start       = ZonedDateTime.ofInstant((entryDocument.getDate("start")).toInstant(), zone);
@@ -218,28 +252,28 @@ public class ScheduleEntry
                 new HashMap<>() : (Map<String,String>) entryDocument.get("announcement_messages");
 
         // misc
+        this.ledger = entryDocument.get("ledger") == null ?
+                new LinkedHashMap<>() : new LinkedHashMap<>((Map<String, Boolean>) entryDocument.get("ledger"));
         this.location = entryDocument.get("location") == null ?
                 null : entryDocument.getString("location");
         this.colorCode = entryDocument.get("color") == null ?
                 null : entryDocument.getString("color");
         this.nonEmbeded = entryDocument.get("non_embeded") == null?
                 null : entryDocument.getString("non_embeded");
-    }
-
 
-    public void announce()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.announce(message);
+        this.persisted = EntryManager.snapshot(entryDocument);
     }
 
 
     /**
      * handles sending special announcements
+     * @param due the time the announcements were due
      */
-    public void announce(Message message)
+    public void announce(Date due)
     {
+        TextChannel channel = this.getTextChannel();
+        if (channel == null) return;
+
         // find all expired Dates' announcement IDs
         Collection<String> expired = new ArrayList<>();
         for(String ID : this.aTimes.keySet())
@@ -259,47 +293,49 @@ public class ScheduleEntry
             this.aDates.remove(key);
         });
 
-        // update db entry
-        Main.getEntryManager().updateEntry(this, false);
-
         // lateness threshold (minutes)
         Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
+        Date cutoff = Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES));
+        boolean send = expired.stream().anyMatch(key -> dates.get(key).after(cutoff));
 
-        // send announcements
+        // the announcements which are not late, written to the event's outbox along with the update
+        List<Document> outbox = new ArrayList<>();
         expired.forEach(key->
         {
-            Boolean late = dates.get(key).after(Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES)));
-            if (late)
+            if (dates.get(key).after(cutoff))
             {
                 String text = ParsingUtilities.processText(this.aMessages.get(key), this, true);
-                String target = this.aTargets.get(key);
-
-                // send announcement
-                this.makeAnnouncement(message, text, target);
-                Logging.event(this.getClass(), "Sent special announcement for event " +
-                        this.getTitle() + " [" + this.getId() + "]");
+                outbox.add(outboxItem(text, this.aTargets.get(key), MessageDispatcher.Priority.ANNOUNCEMENT));
             }
             else
             {
                 Logging.warn(this.getClass(), "Late special event announcement: " + this.title + " ["+this.entryId+"]");
             }
         });
-    }
 
+        // update db entry, unless the announcements were already made
+        String ledgerKey = this.record(EntryProcessor.ActionType.SPECIAL, due, outbox);
+        if (!Main.getEntryManager().updateEntry(this, false)) return;
 
-    public void remind()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.remind(message);
+        // send announcements
+        if (send)
+        {
+            this.deliver(channel.getGuild(), ledgerKey, outbox);
+            Logging.event(this.getClass(), "Sent special announcement for event " +
+                    this.getTitle() + " [" + this.getId() + "]");
+        }
     }
 
 
     /**
      * handles sending reminder notifications
+     * @param due the time the reminder was due
      */
-    public void remind(Message message)
+    public void remind(Date due)
     {
+        TextChannel channel = this.getTextChannel();
+        if (channel == null) return;
+
         Date lastDate = null;
         List<Date> dates = Stream.concat(this.reminders.stream(), this.endReminders.stream())
                 .collect(Collectors.toList());
@@ -316,22 +352,29 @@ public class ScheduleEntry
         this.reminders.removeIf(date -> date.before(new Date()));
         this.endReminders.removeIf(date -> date.before(new Date()));
 
-        // attempt to update the db record
-        Main.getEntryManager().updateEntry(this, false);
+        // is the reminder late?
+        Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
+        boolean late = lastDate != null &&
+                lastDate.after(Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES)));
 
         // parse message and get the target channels
         String text = ParsingUtilities.processText(Main.getScheduleManager().getReminderFormat(this.chanId), this, true);
         String identifier = Main.getScheduleManager().getReminderChan(this.chanId);
+        List<Document> outbox = lastDate != null && late && !this.quietRemind ?
+                Collections.singletonList(outboxItem(text, identifier, MessageDispatcher.Priority.REMINDER)) :
+                Collections.emptyList();
+
+        // attempt to update the db record, unless the reminder was already sent
+        String ledgerKey = this.record(EntryProcessor.ActionType.REMIND, due, outbox);
+        if (!Main.getEntryManager().updateEntry(this, false)) return;
 
         if (lastDate != null)
         {
-            Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
-            Boolean late = lastDate.after(Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES)));
             if (late)
             {   // send reminder
                 if (!this.quietRemind)
                 {
-                    this.makeAnnouncement(message, text, identifier);
+                    this.deliver(channel.getGuild(), ledgerKey, outbox);
                     Logging.event(this.getClass(), "Sent reminder for event " + this.getTitle() + " [" + this.getId() + "]");
                 }
                 else
@@ -347,18 +390,15 @@ public class ScheduleEntry
         }
     }
 
-    public void start()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.start(message);
-    }
-
     /**
      * Handles when an event begins
+     * @param due the time the start was due
      */
-    public void start(Message message)
+    public void start(Date due)
     {
+        TextChannel channel = this.getTextChannel();
+        if (channel == null) return;
+
         // create start message and grab identifier before modifying entry
         String text = ParsingUtilities.processText(Main.getScheduleManager().getStartAnnounceFormat(this.chanId), this, true);
         String identifier = Main.getScheduleManager().getStartAnnounceChan(this.chanId);
@@ -367,16 +407,22 @@ public class ScheduleEntry
         Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
         boolean late = this.start.isAfter(ZonedDateTime.now().minusMinutes(threshold));
 
-        // do database updates before sending announcement
+        // do database updates before sending announcement, unless the event was already started
+        List<Document> outbox = late && !this.quietStart ?
+                Collections.singletonList(outboxItem(text, identifier, MessageDispatcher.Priority.ANNOUNCEMENT)) :
+                Collections.emptyList();
+        String ledgerKey = this.record(EntryProcessor.ActionType.START, due, outbox);
+        boolean updated;
         if (this.start.isEqual(this.end))
         {   // process event repeat
-            this.repeat(message);
+            updated = this.repeat(channel);
         }
         else // update event to has started
         {    // try to update db
             this.hasStarted = true;
-            Main.getEntryManager().startEvent(this);
+            updated = Main.getEntryManager().startEvent(this);
         }
+        if (!updated) return;
 
         // dont send start announcements if 15 minutes late
         if (late)
@@ -384,7 +430,7 @@ public class ScheduleEntry
             // send start announcement
             if (!this.quietStart)
             {
-                this.makeAnnouncement(message, text, identifier);
+                this.deliver(channel.getGuild(), ledgerKey, outbox);
                 String logStr = "Sent start announcement for event \"" + this.getTitle() + "\" [" + this.entryId + "]";
                 Logging.event(this.getClass(), logStr);
             }
@@ -401,19 +447,15 @@ public class ScheduleEntry
     }
 
 
-    public void end()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.end(message);
-    }
-
-
     /**
      * handles when an event ends
+     * @param due the time the end was due
      */
-    public void end(Message message)
+    public void end(Date due)
     {
+        TextChannel channel = this.getTextChannel();
+        if (channel == null) return;
+
         // create the announcement message before modifying event
         String text = ParsingUtilities.processText(Main.getScheduleManager()
                 .getEndAnnounceFormat(this.chanId), this, true);
@@ -423,15 +465,19 @@ public class ScheduleEntry
         Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
         Boolean late = this.end.isAfter(ZonedDateTime.now().minusMinutes(threshold));
 
-        // update entry
-        this.repeat(message);
+        // update entry, unless the event was already ended
+        List<Document> outbox = late && !this.quietEnd ?
+                Collections.singletonList(outboxItem(text, identifier, MessageDispatcher.Priority.ANNOUNCEMENT)) :
+                Collections.emptyList();
+        String ledgerKey = this.record(EntryProcessor.ActionType.END, due, outbox);
+        if (!this.repeat(channel)) return;
 
         // dont send end announcement if late
         if (late)
         {
             if (!this.quietEnd)
             {
-                this.makeAnnouncement(message, text, identifier);
+                this.deliver(channel.getGuild(), ledgerKey, outbox);
                 String logStr = "Sent ended announcement for event \"" + this.getTitle() + "\" [" + this.entryId + "]";
                 Logging.event(this.getClass(), logStr);
             }
@@ -453,13 +499,16 @@ public class ScheduleEntry
      */
     public boolean repeat()
     {
-        Message msg = this.getMessageObject();
-        if (msg == null) return false;
-        this.repeat(msg);
+        TextChannel channel = this.getTextChannel();
+        if (channel == null) return false;
+        this.repeat(channel);
         return true;
     }
 
-    private void repeat(Message message)
+    /**
+     * @return false if the event's document was not written, as the action claimed by the event was already recorded
+     */
+    private boolean repeat(TextChannel channel)
     {
         if (this.recurrence.shouldRepeat(this.start)) // find next repeat date and edit the message
         {
@@ -470,9 +519,9 @@ public class ScheduleEntry
             ZonedDateTime expire = this.recurrence.getExpire();
             if (expire != null && expire.isBefore(this.getStart()))
             {
-                Main.getEntryManager().removeEntry(this.entryId);
-                MessageUtilities.deleteMsg(message, null);
-                return;
+                if (!Main.getEntryManager().removeEntry(this)) return false;
+                this.deleteMessage(channel);
+                return true;
             }
 
             // reload time-dependent announcements
@@ -484,12 +533,70 @@ public class ScheduleEntry
             this.rsvpMembers = new HashMap<>();
 
             // send changes to database
-            Main.getEntryManager().updateEntry(this, true);
+            return Main.getEntryManager().updateEntry(this, true);
         }
         else // otherwise remove entry and delete the message
         {
-            MessageUtilities.deleteMsg(message, null);
-            Main.getEntryManager().removeEntry(this.entryId);
+            if (!Main.getEntryManager().removeEntry(this)) return false;
+            this.deleteMessage(channel);
+            return true;
+        }
+    }
+
+    /**
+     * records an action in the event's ledger, the record is written along with the action's state transition
+     * by the next write of the event, and the write is rejected if the action has already been recorded
+     * @param type the action
+     * @param due the time the action was due
+     * @param outbox the announcements of the action, written to the event's outbox until they have been sent
+     * @return the ledger key of the action
+     */
+    private String record(EntryProcessor.ActionType type, Date due, List<Document> outbox)
+    {
+        long cutoff = System.currentTimeMillis() - LEDGER_RETENTION;
+        this.ledger.keySet().removeIf(key ->
+        {
+            boolean expired = Long.parseLong(key.substring(key.indexOf('@')+1)) < cutoff;
+            if (expired) this.expiredLedgerKeys.add(key);
+            return expired;
+        });
+
+        String key = type + "@" + due.getTime();
+        this.ledger.put(key, outbox.isEmpty());
+        this.claim = key;
+        this.claimOutbox = outbox;
+        return key;
+    }
+
+    /**
+     * an announcement of the event's outbox
+     */
+    private static Document outboxItem(String text, String target, MessageDispatcher.Priority priority)
+    {
+        return new Document("text", text).append("target", target).append("priority", priority.toString());
+    }
+
+    /**
+     * sends the outbox announcements of an action, the action is marked as sent once each has been sent
+     * @param guild the event's guild
+     * @param key ledger key of the action
+     * @param outbox the action's announcements
+     */
+    void deliver(Guild guild, String key, List<Document> outbox)
+    {
+        Set<Integer> sent = ConcurrentHashMap.newKeySet();
+        for (int i=0; i<outbox.size(); i++)
+        {
+            int index = i;
+            Document item = outbox.get(i);
+            this.makeAnnouncement(guild, item.getString("text"), item.getString("target"),
+                    MessageDispatcher.Priority.valueOf(item.getString("priority")), () ->
+                    {
+                        if (sent.add(index) && sent.size() == outbox.size())
+                        {
+                            Main.getEntryManager().markSent(this.entryId, key);
+                        }
+                    });
         }
     }
 
@@ -498,8 +605,10 @@ public class ScheduleEntry
      * processes a channel identifier (either a channel name or snowflake ID) into a valid channel
      * and sends an event announcement
      */
-    private void makeAnnouncement(Message message, String content, String target)
+    private void makeAnnouncement(Guild guild, String content, String target, MessageDispatcher.Priority priority,
+                                  Runnable onSent)
     {
+        Consumer<Message> sent = onSent == null ? null : message -> onSent.run();
         // don't send to any announcement if target is null
         if (target != null)
         {
@@ -511,10 +620,10 @@ public class ScheduleEntry
             {
                 try
                 {
-                    TextChannel channel = message.getGuild().getTextChannelById(target);
+                    TextChannel channel = guild.getTextChannelById(target);
                     if (channel != null)
                     {
-                        MessageUtilities.sendMsg(content, channel, null);
+                        MessageUtilities.queueMsg(content, channel, priority, sent);
                         success = true;
                     }
                 }
@@ -530,10 +639,10 @@ public class ScheduleEntry
             // treat the identifier as a channel name
             if (!success && !target.isEmpty())
             {
-                List<TextChannel> channels = message.getGuild().getTextChannelsByName(target, true);
+                List<TextChannel> channels = guild.getTextChannelsByName(target, true);
                 for (TextChannel chan : channels)
                 {
-                    MessageUtilities.sendMsg(content, chan, null);
+                    MessageUtilities.queueMsg(content, chan, priority, sent);
                 }
             }
         }
@@ -546,8 +655,30 @@ public class ScheduleEntry
      */
     void reloadDisplay()
     {
-        this.getMessageObject((message)->
-                MessageUtilities.editMsg(MessageGenerator.generate(this), message, null));
+        Main.getEntryManager().getDisplayRefresher().refresh(this);
+    }
+
+    /**
+     * edits the event's display message, refreshes should be requested through reloadDisplay
+     * so that they are coalesced by the DisplayRefresher
+     */
+    void updateDisplay()
+    {
+        TextChannel channel = this.getTextChannel();
+        if (channel != null)
+        {   // edit by ID, keeping any cached copy of the message current
+            MessageUtilities.editMsgById(MessageGenerator.generate(this), channel, this.msgId,
+                    message -> messageCache.asMap().replace(message.getId(), message));
+        }
+    }
+
+    /**
+     * deletes the event's display message
+     */
+    private void deleteMessage(TextChannel channel)
+    {
+        messageCache.invalidate(this.msgId);
+        MessageUtilities.deleteMsgById(channel, this.msgId, null);
     }
 
 
@@ -627,17 +758,8 @@ public class ScheduleEntry
             if(emoteKey.equals(clearEmoji))
             {
                 // remove the user from groups
-                boolean atLeastOne = false;
-                for(String group : options.values())
-                {
-                    Set<String> members = this.getRsvpMembersOfType(group);
-                    if (members.contains(event.getUser().getId()))
-                    {
-                        members.remove(event.getUser().getId());
-                        this.setRsvpMembers(group, members);
-                        atLeastOne = true;
-                    }
-                }
+                boolean atLeastOne = Main.getRSVPService()
+                        .rescind(this, event.getUser().getId(), new HashSet<>(options.values()));
 
                 if(atLeastOne)  // if the user was removed from at least one group
                 {
@@ -655,10 +777,8 @@ public class ScheduleEntry
                                 this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
                         TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
                         if (loggingChannel != null)
-                            MessageUtilities.sendMsg(content, loggingChannel, null);
+                            MessageUtilities.queueMsg(content, loggingChannel, MessageDispatcher.Priority.LOG, null);
                     }
-
-                    Main.getEntryManager().updateEntry(this, false);
                 }
             }
             else
@@ -666,56 +786,44 @@ public class ScheduleEntry
                 // get the name of the rsvp group
                 String name = options.get(emoteKey);
 
-                // if the rsvp group is full, do nothing
-                if (!this.isFull(name))
+                // remove the user from any other rsvp lists for that event if exclusivity is enabled
+                Set<String> otherGroups = new HashSet<>();
+                boolean hasChangedRSVP = false;
+                if (Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId()))
                 {
-                    // add the user to the rsvp type
-                    Set<String> members = this.getRsvpMembersOfType(name);
-                    if (!members.contains(event.getUser().getId()))
+                    for(String group : options.values())
                     {
-                        members.add(event.getUser().getId());
-                        this.setRsvpMembers(name, members);
-
-                        // remove the user from any other rsvp lists for that event if exclusivity is enabled
-                        boolean hasChangedRSVP = false;
-                        if (Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId()))
+                        if (!group.equals(name))
                         {
-                            for(String group : options.values())
+                            otherGroups.add(group);
+                            if (this.getRsvpMembersOfType(group).contains(event.getUser().getId()))
                             {
-                                if (!group.equals(name))
-                                {
-                                    members = this.getRsvpMembersOfType(group);
-                                    if (members.contains(event.getUser().getId()))
-                                    {
-                                        members.remove(event.getUser().getId());
-                                        hasChangedRSVP = true;
-                                        this.setRsvpMembers(group, members);
-                                    }
-                                }
+                                hasChangedRSVP = true;
                             }
                         }
+                    }
+                }
 
-                        // send rsvp confirmation to the user
-                        if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
-                        {
-                            String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
-                                    " ``" + name + "`` for **" + this.getTitle() + "**";
-                            MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
-                        }
-
-                        // log the rsvp action
-                        if (!logging.isEmpty() && logging.matches("\\d+"))
-                        {
-                            String content = "<@" + event.getUser().getId() + "> " +
-                                    (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
-                                    this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
-                            TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
-                            if (loggingChannel != null)
-                                MessageUtilities.sendMsg(content, loggingChannel, null);
-                        }
+                // add the user to the rsvp type, does nothing if the rsvp group is full or the user is a member
+                if (Main.getRSVPService().join(this, name, event.getUser().getId(), otherGroups))
+                {
+                    // send rsvp confirmation to the user
+                    if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
+                    {
+                        String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
+                                " ``" + name + "`` for **" + this.getTitle() + "**";
+                        MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
+                    }
 
-                        // update the event with the adjusted RSVP list
-                        Main.getEntryManager().updateEntry(this, false);
+                    // log the rsvp action
+                    if (!logging.isEmpty() && logging.matches("\\d+"))
+                    {
+                        String content = "<@" + event.getUser().getId() + "> " +
+                                (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
+                                this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
+                        TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
+                        if (loggingChannel != null)
+                            MessageUtilities.queueMsg(content, loggingChannel, MessageDispatcher.Priority.LOG, null);
                     }
                 }
             }
@@ -993,14 +1101,14 @@ public class ScheduleEntry
      */
     public Message getMessageObject()
     {
-        Message msg;
+        Message msg = messageCache.getIfPresent(this.msgId);
+        if (msg != null) return msg;
         try
         {
-            JDA jda = Main.getShardManager().isSharding() ?
-                    Main.getShardManager().getShard(guildId) : Main.getShardManager().getJDA();
-            msg = jda.getTextChannelById(this.chanId)
+            msg = this.getTextChannel()
                     .retrieveMessageById(this.msgId)
                     .complete();
+            messageCache.put(msg.getId(), msg);
         }
         catch (Exception e)
         {
@@ -1016,16 +1124,35 @@ public class ScheduleEntry
      */
     public void getMessageObject(Consumer<Message> success)
     {
-        JDA jda = Main.getShardManager().isSharding() ?
-                Main.getShardManager().getShard(guildId) : Main.getShardManager().getJDA();
-        TextChannel channel = jda.getTextChannelById(this.chanId);
+        Message msg = messageCache.getIfPresent(this.msgId);
+        if (msg != null)
+        {
+            success.accept(msg);
+            return;
+        }
+        TextChannel channel = this.getTextChannel();
         if (channel != null)
         {
             channel.retrieveMessageById(this.msgId)
-                    .queue(success);
+                    .queue(message ->
+                    {
+                        messageCache.put(message.getId(), message);
+                        success.accept(message);
+                    });
         }
     }
 
+    /**
+     * resolves the event's channel from the JDA cache, no request is made to discord
+     * @return the TextChannel, or null if the channel is not available to the bot
+     */
+    public TextChannel getTextChannel()
+    {
+        JDA jda = Main.getShardManager().isSharding() ?
+                Main.getShardManager().getShard(guildId) : Main.getShardManager().getJDA();
+        return jda == null ? null : jda.getTextChannelById(this.chanId);
+    }
+
     /*
      * Setters
      */
@@ -1229,6 +1356,62 @@ public class ScheduleEntry
         return this;
     }
 
+    /**
+     * @return copy of the event document as it was last known to be stored, or null for new events
+     */
+    Document getPersisted()
+    {
+        return this.persisted;
+    }
+
+    void setPersisted(Document document)
+    {
+        this.persisted = document;
+    }
+
+    /**
+     * moves the event onto another of its schedule's messages, used when a schedule is sorted
+     */
+    void setMessageId(String messageId)
+    {
+        this.msgId = messageId;
+    }
+
+    Map<String, Boolean> getLedger()
+    {
+        return this.ledger;
+    }
+
+    /**
+     * @return the ledger key which the next write of the event must record, cleared once taken
+     */
+    String takeClaim()
+    {
+        String claim = this.claim;
+        this.claim = null;
+        return claim;
+    }
+
+    /**
+     * @return the ledger keys past retention which the next write of the event must remove, cleared once taken
+     */
+    List<String> takeExpiredLedgerKeys()
+    {
+        List<String> keys = this.expiredLedgerKeys;
+        this.expiredLedgerKeys = new ArrayList<>();
+        return keys;
+    }
+
+    /**
+     * @return the announcements which the next write of the event must add to its outbox, cleared once taken
+     */
+    List<Document> takeClaimOutbox()
+    {
+        List<Document> outbox = this.claimOutbox;
+        this.claimOutbox = new ArrayList<>();
+        return outbox;
+    }
+
     /**
      * set the event's associated discord message object
      */
@@ -1237,6 +1420,7 @@ public class ScheduleEntry
         this.chanId = msg.getChannel().getId();
         this.guildId = msg.getGuild().getId();
         this.msgId = msg.getId();
+        messageCache.put(msg.getId(), msg);
         return this;
     }
 
@@ -1281,6 +1465,20 @@ public class ScheduleEntry
         return this;
     }
 
+    /**
+     * replaces the rsvp members with those stored in the database after an atomic rsvp update
+     */
+    void refreshRsvpMembers(Map<String, List<String>> members)
+    {
+        this.rsvpMembers = members;
+        if (this.persisted != null)
+        {
+            Map<String, List<String>> copy = new LinkedHashMap<>();
+            members.forEach((group, users) -> copy.put(group, new ArrayList<>(users)));
+            this.persisted.put("rsvp_members", copy);
+        }
+    }
+
     /**
      * set the deadline by which members must rsvp
      */
@@ -1,14 +1,22 @@
 package ws.nmathe.saber.core.schedule;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.exceptions.PermissionException;
+import net.dv8tion.jda.api.utils.MiscUtil;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
 
 import java.time.*;
@@ -17,13 +25,12 @@ import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Projections.fields;
-import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.set;
 
 /**
@@ -32,7 +39,36 @@ import static com.mongodb.client.model.Updates.set;
 public class ScheduleManager
 {
     private Set<String> locks = new HashSet<>(); // locks channels from running multiple sorts simultaneously
-    private Integer MAX_SIZE_TO_SYNC = 15;  // do not sort schedules more than this number of events
+
+    // snapshots of schedule settings keyed by channel ID, an empty value marks a channel which is not a schedule
+    // entries are invalidated by the setters and expire as a safeguard against writes made outside this class
+    private LoadingCache<String, Optional<ScheduleSettings>> settingsCache = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .expireAfterWrite(30, TimeUnit.MINUTES)
+            .recordStats()
+            .build(new CacheLoader<String, Optional<ScheduleSettings>>()
+            {
+                @Override
+                public Optional<ScheduleSettings> load(String cId)
+                {
+                    Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
+                    return settings == null ? Optional.empty() : Optional.of(new ScheduleSettings(settings));
+                }
+
+                @Override
+                public Map<String, Optional<ScheduleSettings>> loadAll(Iterable<? extends String> channelIds)
+                {
+                    Map<String, Optional<ScheduleSettings>> loaded = new HashMap<>();
+                    channelIds.forEach(cId -> loaded.put(cId, Optional.empty()));
+                    Main.getDBDriver().getScheduleCollection().find(in("_id", loaded.keySet()))
+                            .forEach((Consumer<? super Document>) settings ->
+                                    loaded.put(settings.getString("_id"), Optional.of(new ScheduleSettings(settings))));
+                    return loaded;
+                }
+            });
+
+    // number of invalidations made, used to discard bulk loads which may have read settings invalidated meanwhile
+    private final AtomicLong invalidations = new AtomicLong();
 
     /**
      * starts a scheduled thread responsible for synchronizing channels with their linked google calendar counterparts
@@ -41,7 +77,9 @@ public class ScheduleManager
     public void init()
     {   // every 15 minutes create a thread to check for schedules to sync
         ScheduledExecutorService syncScheduler = Executors.newScheduledThreadPool(1);
-        syncScheduler.scheduleAtFixedRate(new ScheduleSyncer(), 30, 30, TimeUnit.MINUTES);
+        syncScheduler.scheduleAtFixedRate(Main.getDBDriver().getLeaseManager()
+                .exclusive("schedule_syncer", TimeUnit.MINUTES.toMillis(40), new ScheduleSyncer()),
+                30, 30, TimeUnit.MINUTES);
     }
 
     /**
@@ -146,6 +184,8 @@ public class ScheduleManager
         Document schedule =
                 new Document("_id", channelId)
                         .append("guildId", guildId)
+                        .append("shard", ShardManager.shardOf(guildId))
+                        .append("shard_total", Main.getBotSettingsManager().getShardTotal())
                         .append("announcement_channel", Main.getBotSettingsManager().getAnnounceChan())
                         .append("announcement_format", Main.getBotSettingsManager().getAnnounceFormat())
                         .append("clock_format", Main.getBotSettingsManager().getClockFormat())
@@ -161,6 +201,7 @@ public class ScheduleManager
                         .append("rsvp_options", default_rsvp);
 
         Main.getDBDriver().getScheduleCollection().insertOne(schedule);
+        this.invalidateSettings(channelId);
     }
 
     /**
@@ -170,11 +211,7 @@ public class ScheduleManager
     public void deleteSchedule(String cId)
     {
         // identify which shard is responsible for the schedule
-        Document doc = Main.getDBDriver().getScheduleCollection()
-                .find(eq("_id", cId))
-                .projection(fields(include("guildId")))
-                .first();
-        JDA jda = Main.getShardManager().getJDA(doc.getString("guildId"));
+        JDA jda = Main.getShardManager().getJDA(this.getSettings(cId).getString("guildId"));
 
         try
         {
@@ -192,6 +229,7 @@ public class ScheduleManager
 
         Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
         Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -201,8 +239,7 @@ public class ScheduleManager
      */
     public boolean isSchedule(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        return settings != null;
+        return this.getSettings(cId) != null;
     }
 
     /**
@@ -216,11 +253,6 @@ public class ScheduleManager
         return Main.getBotSettingsManager().getMaxSchedules() < count;
     }
 
-    private long getScheduleSize(String cId)
-    {
-        return Main.getDBDriver().getScheduleCollection().count(eq("channelId",cId));
-    }
-
     /**
      * check to see if the channel is locked
      * @param cId (String) channel ID
@@ -263,7 +295,6 @@ public class ScheduleManager
      */
     public void sortSchedule(String cId, boolean reverseOrder)
     {
-        if(this.getScheduleSize(cId) > MAX_SIZE_TO_SYNC) return;
         if(this.isLocked(cId)) return;
 
         this.lock(cId); // lock the channel
@@ -273,11 +304,7 @@ public class ScheduleManager
         try
         {
             // identify which shard is responsible for the schedule
-            Document doc = Main.getDBDriver().getScheduleCollection()
-                    .find(eq("_id", cId))
-                    .projection(fields(include("guildId")))
-                    .first();
-            JDA jda = Main.getShardManager().getJDA(doc.getString("guildId"));
+            JDA jda = Main.getShardManager().getJDA(this.getSettings(cId).getString("guildId"));
 
             // find the message channel and send the 'is typing' while processing
             MessageChannel chan = jda.getTextChannelById(cId);
@@ -287,50 +314,39 @@ public class ScheduleManager
             if(reverseOrder)
                 sortOrder = -1;
 
-            LinkedList<ScheduleEntry> unsortedEntries = new LinkedList<>();
-            Main.getDBDriver().getEventCollection().find(eq("channelId", cId))
-                    .sort(new Document("start", sortOrder))
-                    .forEach((Consumer<? super Document>) document -> unsortedEntries.add(new ScheduleEntry(document)));
-
-            // selection sort the entries by timestamp
-            while (!unsortedEntries.isEmpty())
+            // the events in the order in which they should be displayed
+            List<ScheduleEntry> entries = Main.getEntryManager().hydrate(
+                    Main.getDBDriver().getEventCollection().find(and(eq("channelId", cId), ne("messageId", null)))
+                            .sort(new Document("start", sortOrder))
+                            .into(new ArrayList<>()));
+
+            // the event messages in the order in which they appear in the channel,
+            // a message ID is a snowflake which encodes the message's creation time
+            List<String> messageIds = entries.stream()
+                    .map(ScheduleEntry::getMessageId)
+                    .sorted(Comparator.comparingLong(MiscUtil::parseSnowflake))
+                    .collect(Collectors.toList());
+
+            // the n-th event takes the n-th message, only events which change message need to be written and edited
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            List<ScheduleEntry> moved = new ArrayList<>();
+            for (int i=0; i<entries.size(); i++)
             {
-                chan.sendTyping().queue();   // continue to send 'is typing'
+                ScheduleEntry se = entries.get(i);
+                String messageId = messageIds.get(i);
+                if (messageId.equals(se.getMessageId())) continue;
 
-                ScheduleEntry top = unsortedEntries.pop();
-                ScheduleEntry min = top;
-                for (ScheduleEntry cur : unsortedEntries)
-                {
-                    Message minMsg = min.getMessageObject();
-                    Message topMsg = cur.getMessageObject();
-                    if (minMsg!=null && topMsg!=null)
-                    {
-                        OffsetDateTime a = minMsg.getTimeCreated();
-                        OffsetDateTime b = topMsg.getTimeCreated();
-                        if (a.isAfter(b))
-                        {
-                            min = cur;
-                        }
-                    }
-
-                }
-                // swap messages and update db
-                if (!(min==top))
-                {
-                    Message tmp = top.getMessageObject();
-                    top.setMessageObject(min.getMessageObject());
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", top.getId()),
-                            new Document("$set", new Document("messageId", min.getMessageObject().getId())));
-
-                    min.setMessageObject(tmp);
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", min.getId()),
-                            new Document("$set", new Document("messageId", tmp.getId())));
-                }
+                se.setMessageId(messageId);
+                updates.add(new UpdateOneModel<>(eq("_id", se.getId()), set("messageId", messageId)));
+                moved.add(se);
+            }
+            if (updates.isEmpty()) return;
 
-                // reload display
-                top.reloadDisplay();
+            Main.getDBDriver().getEventCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            for (ScheduleEntry se : moved)
+            {
+                Main.getEntryManager().getMessageIndex().put(se.getMessageId(), se.getId());
+                se.reloadDisplay();
             }
         }
         catch(PermissionException e)
@@ -355,9 +371,91 @@ public class ScheduleManager
      *
      */
 
+    /**
+     * retrieves the (cached) settings of a schedule
+     * @param cId (String) channel ID, synonymous to schedule id
+     * @return settings snapshot, or null if the channel is not a schedule
+     */
+    private ScheduleSettings getSettings(String cId)
+    {
+        return this.settingsCache.getUnchecked(cId).orElse(null);
+    }
+
+    /**
+     * drops the cached settings of a schedule,
+     * should be used after the schedule's document is written or deleted outside of the ScheduleManager
+     * @param cId (String) channel ID
+     */
+    public void invalidateSettings(String cId)
+    {
+        this.invalidations.incrementAndGet();
+        this.settingsCache.invalidate(cId);
+    }
+
+    /**
+     * loads the settings of every listed schedule which is not yet cached using a single query,
+     * used before building many events at once so that each event does not load its schedule's settings
+     * @param channelIds IDs of the schedules
+     */
+    void preloadSettings(Collection<String> channelIds)
+    {
+        Set<String> missing = new HashSet<>(channelIds);
+        missing.removeAll(this.settingsCache.getAllPresent(channelIds).keySet());
+        if (missing.isEmpty()) return;
+
+        long before = this.invalidations.get();
+        try
+        {
+            this.settingsCache.getAll(missing);
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+            return;
+        }
+
+        // the bulk load stores what it read regardless of invalidations made while it ran,
+        // so drop the loaded settings if any schedule was invalidated in the meantime
+        if (this.invalidations.get() != before)
+        {
+            this.settingsCache.invalidateAll(missing);
+        }
+    }
+
+    /**
+     * drops the cached settings of every schedule
+     */
+    public void invalidateAllSettings()
+    {
+        this.invalidations.incrementAndGet();
+        this.settingsCache.invalidateAll();
+    }
+
+    /**
+     * @return hit/miss statistics of the schedule settings cache
+     */
+    public CacheStats getSettingsCacheStats()
+    {
+        return this.settingsCache.stats();
+    }
+
+    /**
+     * @return number of schedules held in the settings cache
+     */
+    public long getSettingsCacheSize()
+    {
+        return this.settingsCache.size();
+    }
+
+    public boolean isTimeZoneSynced(String cId)
+    {
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.getBoolean("timezone_sync", false);
+    }
+
     public boolean isRSVPEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -367,7 +465,7 @@ public class ScheduleManager
 
     public boolean isRSVPConfirmationsEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -377,55 +475,55 @@ public class ScheduleManager
 
     public boolean isEndFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
         }
 
-        String format = (String) settings.get("announcement_format_end");
+        String format = settings.getString("announcement_format_end");
         return !(format == null);
     }
 
     public boolean isEndChannelOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
         }
 
-        String format = (String) settings.get("announcement_channel_end");
+        String format = settings.getString("announcement_channel_end");
         return !(format == null);
     }
 
     public boolean isRemindFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
         }
 
-        String format = (String) settings.get("reminder_format");
+        String format = settings.getString("reminder_format");
         return !(format == null);
     }
 
     public boolean isRemindChanOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
         }
 
-        String format = (String) settings.get("reminder_channel");
+        String format = settings.getString("reminder_channel");
         return !(format == null);
     }
 
     public boolean isRSVPExclusive(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         return settings == null || settings.getBoolean("rsvp_exclusivity", true);
     }
 
@@ -446,7 +544,7 @@ public class ScheduleManager
 
     public String getStartAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
@@ -461,7 +559,7 @@ public class ScheduleManager
 
     public String getStartAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
@@ -476,7 +574,7 @@ public class ScheduleManager
 
     public String getEndAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
@@ -491,7 +589,7 @@ public class ScheduleManager
 
     public String getEndAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
@@ -506,7 +604,7 @@ public class ScheduleManager
 
     public String getClockFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getClockFormat();
@@ -521,7 +619,7 @@ public class ScheduleManager
 
     public ZoneId getTimeZone(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return ZoneId.of(Main.getBotSettingsManager().getTimeZone());
@@ -536,12 +634,12 @@ public class ScheduleManager
 
     public List<ZoneId> getAltZones(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return new ArrayList<>();
         }
-        List<String> zones = (List<String>) settings.get("alt_zones");
+        List<String> zones = settings.getList("alt_zones");
         if(zones == null)
         {
             return new ArrayList<>();
@@ -551,7 +649,7 @@ public class ScheduleManager
 
     public String getAddress(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return "off";
@@ -567,7 +665,7 @@ public class ScheduleManager
 
     public Date getSyncTime(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Date.from(ZonedDateTime.of(LocalDate.now().plusDays(1),
@@ -586,13 +684,13 @@ public class ScheduleManager
     @SuppressWarnings("unchecked")
     public List<Integer> getReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return new ArrayList<>();
         }
 
-        List<Integer> reminders = (List<Integer>) settings.get("default_reminders");
+        List<Integer> reminders = settings.getList("default_reminders");
         if(reminders == null)
         {
             return new ArrayList<>();
@@ -602,16 +700,16 @@ public class ScheduleManager
 
     public String getReminderChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
         }
 
-        String chan_name = (String) settings.get("reminder_channel");
+        String chan_name = settings.getString("reminder_channel");
         if(chan_name == null )
         {
-            return (String) settings.get("announcement_channel");
+            return settings.getString("announcement_channel");
         }
         return chan_name;
 
@@ -619,29 +717,29 @@ public class ScheduleManager
 
     public String getReminderFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
         }
 
-        String format = (String) settings.get("reminder_format");
+        String format = settings.getString("reminder_format");
         if(format == null )
         {
-            return (String) settings.get("announcement_format");
+            return settings.getString("announcement_format");
         }
         return format;
     }
 
     public String getStyle(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "FULL";
         }
 
-        String style = (String) settings.get("display_style");
+        String style = settings.getString("display_style");
         if(style == null)
         {
             return "FULL";
@@ -651,13 +749,13 @@ public class ScheduleManager
 
     public int getSyncLength(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return 7;
         }
 
-        Integer len = (Integer) settings.get("sync_length");
+        Integer len = settings.getInteger("sync_length");
         if(len == null)
         {
             return 7;
@@ -667,7 +765,7 @@ public class ScheduleManager
 
     public String getSyncUser(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return null;
@@ -683,13 +781,13 @@ public class ScheduleManager
 
     public int getAutoSort(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return 0;
         }
 
-        Integer sort = (Integer) settings.get("auto_sort");
+        Integer sort = settings.getInteger("auto_sort");
         if(sort == null)
         {
             return 0;
@@ -699,13 +797,13 @@ public class ScheduleManager
 
     public Map<String, String> getRSVPOptions(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return new HashMap<>();
         }
 
-        Map<String, String> map = (Map) settings.get("rsvp_options");
+        Map<String, String> map = settings.getMap("rsvp_options");
         if(map == null)
         {
             map = new LinkedHashMap<>();
@@ -718,7 +816,7 @@ public class ScheduleManager
 
     public String getRSVPClear(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
@@ -733,7 +831,7 @@ public class ScheduleManager
 
     public String getRSVPLogging(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
@@ -748,12 +846,12 @@ public class ScheduleManager
 
     public List<Integer> getEndReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return new ArrayList<>();
         }
-        List<Integer> reminders = (List<Integer>) settings.get("end_reminders");
+        List<Integer> reminders = settings.getList("end_reminders");
         if(reminders == null)
         {
             return new ArrayList<>();
@@ -771,6 +869,7 @@ public class ScheduleManager
     public void setAnnounceChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -779,6 +878,7 @@ public class ScheduleManager
     public void setAnnounceFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -787,6 +887,7 @@ public class ScheduleManager
     public void setEndAnnounceChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel_end", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -795,6 +896,7 @@ public class ScheduleManager
     public void setEndAnnounceFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format_end", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -803,6 +905,7 @@ public class ScheduleManager
     public void setClockFormat(String cId, String clock )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("clock_format", clock));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -811,6 +914,7 @@ public class ScheduleManager
     public void setTimeZone(String cId, ZoneId zone)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("timezone", zone.toString()));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -828,6 +932,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("alt_zones", zones));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -836,6 +941,7 @@ public class ScheduleManager
     public void setAddress(String cId, String address)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_address", address));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -844,6 +950,7 @@ public class ScheduleManager
     public void setSyncTime(String cId, Date syncTime)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_time", syncTime));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -852,6 +959,7 @@ public class ScheduleManager
     public void setReminders(String cId, List<Integer> reminders)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("default_reminders", reminders));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -868,6 +976,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("end_reminders", reminders));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -876,6 +985,7 @@ public class ScheduleManager
     public void setReminderChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_channel", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -884,6 +994,7 @@ public class ScheduleManager
     public void setReminderFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_format", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -892,6 +1003,7 @@ public class ScheduleManager
     public void setRSVPEnable(String cId, boolean value)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("rsvp_enabled", value));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -902,6 +1014,7 @@ public class ScheduleManager
     public void setStyle(String cId, String style)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("display_style", style));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -910,6 +1023,7 @@ public class ScheduleManager
     public void setSyncLength(String cId, int len)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_length", len));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -919,6 +1033,7 @@ public class ScheduleManager
     public void setAutoSort(String cId, int type)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("auto_sort", type));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -935,6 +1050,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_options", options));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -951,6 +1067,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_clear", emoji));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -967,6 +1084,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_exclusivity", bool));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -983,6 +1101,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_confirmations", bool));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -999,5 +1118,24 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_logging", channelIdentifier));
         }
+        this.invalidateSettings(cId);
+    }
+
+    /**
+     * Sets whether or not a schedule's timezone should follow its synced google calendar
+     */
+    public void setTimeZoneSync(String cId, boolean value)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("timezone_sync", value));
+        this.invalidateSettings(cId);
+    }
+
+    /**
+     * Sets the user whose google credentials are used when syncing a schedule
+     */
+    public void setSyncUser(String cId, String userId)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_user", userId));
+        this.invalidateSettings(cId);
     }
 }
@@ -0,0 +1,60 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of a schedule's settings document, held by the ScheduleManager's settings cache.
+ * Collections and dates are copied when read so that callers can never alter the cached snapshot.
+ */
+class ScheduleSettings
+{
+    private final Document settings;
+
+    /** construct the snapshot from a document from the schedules collection */
+    ScheduleSettings(Document document)
+    {
+        this.settings = new Document(document);
+    }
+
+    boolean containsKey(String key)
+    {
+        return this.settings.containsKey(key);
+    }
+
+    String getString(String key)
+    {
+        return this.settings.getString(key);
+    }
+
+    boolean getBoolean(String key, boolean defaultValue)
+    {
+        return this.settings.getBoolean(key, defaultValue);
+    }
+
+    Integer getInteger(String key)
+    {
+        return this.settings.getInteger(key);
+    }
+
+    Date getDate(String key)
+    {
+        Date date = this.settings.getDate(key);
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> List<T> getList(String key)
+    {
+        List<T> list = (List<T>) this.settings.get(key);
+        return list == null ? null : new ArrayList<>(list);
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> getMap(String key)
+    {
+        Map<String, String> map = (Map<String, String>) this.settings.get(key);
+        return map == null ? null : new LinkedHashMap<>(map);
+    }
+}
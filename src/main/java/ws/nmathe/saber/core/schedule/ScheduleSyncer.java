@@ -2,12 +2,13 @@ package ws.nmathe.saber.core.schedule;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.calendar.Calendar;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.TextChannel;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorRegistry;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.core.google.GoogleAuth;
 import ws.nmathe.saber.core.settings.GuildSettingsManager;
 import ws.nmathe.saber.utils.Logging;
@@ -16,13 +17,11 @@ import ws.nmathe.saber.utils.MessageUtilities;
 import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
-import static com.mongodb.client.model.Updates.set;
 import static ws.nmathe.saber.Main.getGuildSettingsManager;
 
 /**
@@ -32,14 +31,15 @@ import static ws.nmathe.saber.Main.getGuildSettingsManager;
  */
 class ScheduleSyncer implements Runnable
 {
-    // thread pool for sync jobs
-    private static ExecutorService executor = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("ScheduleSync-%d").build());
+    // thread pool for sync jobs, the syncer waits on the pool by running a job itself when the queue is full
+    private static ExecutorService executor = Main.getExecutorRegistry().create("ScheduleSync",
+            Main.getBotSettingsManager()::getSyncWorkers, 100, ExecutorRegistry.Saturation.CALLER_RUNS);
 
     public void run()
     {
         Logging.info(this.getClass(), "Running schedule syncer. . .");
         Bson query = and(
+                        ShardManager.getLocalShardFilter(),
                         ne("sync_address", "off"),
                         lte("sync_time", new Date()));
 
@@ -67,8 +67,7 @@ class ScheduleSyncer implements Runnable
                             Main.getScheduleManager().getTimeZone(scheduleId)).plusDays(1).toInstant());
 
                     // update schedule document with next sync time
-                    Main.getDBDriver().getScheduleCollection()
-                            .updateOne(eq("_id", scheduleId), set("sync_time", syncTime));
+                    Main.getScheduleManager().setSyncTime(scheduleId, syncTime);
 
                     // get the sync address and google credentials, then create the calendar service
                     String address = document.getString("sync_address");
@@ -0,0 +1,116 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the entry processor jobs at the instants they are next due rather than at fixed intervals.
+ * After each run a job plans its next run from the data (ie. the earliest event action not yet loaded),
+ * and sleeps until then, or until MAX_SLEEP has passed as a safeguard against missed wake-ups.
+ * Writes which bring a job's next run forward wake the job early with wake().
+ */
+class WakeupScheduler
+{
+    static final long NEVER = Long.MAX_VALUE;                       // planned by a job with nothing due
+    private static final long MAX_SLEEP = TimeUnit.HOURS.toMillis(6);
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("WakeupScheduler-%d").build());
+    private final Map<EntryManager.type, Job> jobs = new EnumMap<>(EntryManager.type.class);
+
+    /**
+     * adds a job, the job first runs after the initial delay
+     * @param type the job
+     * @param task the work of the job
+     * @param planner returns the epoch milliseconds at which the job is next due, or NEVER,
+     *                called after each run of the task
+     * @param delay milliseconds until the first run
+     */
+    void register(EntryManager.type type, Runnable task, LongSupplier planner, long delay)
+    {
+        Job job = new Job(task, planner);
+        synchronized (this.jobs)
+        {
+            this.jobs.put(type, job);
+        }
+        job.wake(System.currentTimeMillis() + delay);
+    }
+
+    /**
+     * brings a job's next run forward, a later instant than the job's next run is ignored
+     * @param type the job
+     * @param at epoch milliseconds at which the job should run
+     */
+    void wake(EntryManager.type type, long at)
+    {
+        Job job;
+        synchronized (this.jobs)
+        {
+            job = this.jobs.get(type);
+        }
+        if (job != null) job.wake(at);
+    }
+
+    private class Job
+    {
+        private final Runnable task;
+        private final LongSupplier planner;
+
+        private long due = NEVER;               // guarded by this
+        private boolean running = false;        // guarded by this
+        private ScheduledFuture<?> future;      // guarded by this
+
+        Job(Runnable task, LongSupplier planner)
+        {
+            this.task = task;
+            this.planner = planner;
+        }
+
+        synchronized void wake(long at)
+        {
+            if (at >= this.due) return;
+            this.due = at;
+            if (this.running) return;   // rescheduled when the run completes
+            if (this.future != null) this.future.cancel(false);
+            this.future = executor.schedule(this::run,
+                    Math.max(0, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        private void run()
+        {
+            synchronized (this)
+            {
+                if (this.running) return;
+                this.running = true;
+                this.due = NEVER;       // wakes received during the run are kept
+            }
+
+            long planned = NEVER;
+            try
+            {
+                this.task.run();
+                planned = this.planner.getAsLong();
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+
+            synchronized (this)
+            {
+                this.running = false;
+                long next = Math.min(this.due, Math.min(planned, System.currentTimeMillis() + MAX_SLEEP));
+                this.due = NEVER;
+                this.wake(next);
+            }
+        }
+    }
+}
@@ -148,6 +148,17 @@ public class BotSettingsManager
         int log_level;
         List<Integer> shards;
         int shard_total;
+        Long display_refresh_window;
+        Integer action_workers;
+        Double prune_request_rate;
+        Integer countdown_refresh_minutes;
+        Double catch_up_rate;
+        Integer retry_max_age;
+        Boolean retry_spill;
+        Integer command_workers;
+        Integer display_workers;
+        Integer sync_workers;
+        Boolean virtual_threads;
 
         BotSettings()
         {
@@ -160,6 +171,8 @@ public class BotSettingsManager
 
             shards = new ArrayList<>();
             shard_total = 0;
+            display_refresh_window = 5000L;
+            action_workers = 10;
 
             prefix = "!";
             admin_prefix = "s.";
@@ -307,4 +320,94 @@ public class BotSettingsManager
     {
         return settings.shard_total;
     }
+
+    /**
+     * @return minimum milliseconds between two edits of an event's display message
+     */
+    public long getDisplayRefreshWindow()
+    {
+        return settings.display_refresh_window == null ? 5000L : settings.display_refresh_window;
+    }
+
+    /**
+     * @return number of threads which execute event announcements
+     */
+    public int getActionWorkers()
+    {
+        return settings.action_workers == null || settings.action_workers < 1 ? 10 : settings.action_workers;
+    }
+
+    /**
+     * @return message lookups per second the database pruner may make
+     */
+    public double getPruneRequestRate()
+    {
+        return settings.prune_request_rate == null || settings.prune_request_rate <= 0 ? 1.0 : settings.prune_request_rate;
+    }
+
+    /**
+     * @return minutes between refreshes of the 'in x minutes' timers of events within the hour
+     */
+    public int getCountdownRefreshMinutes()
+    {
+        return settings.countdown_refresh_minutes == null || settings.countdown_refresh_minutes < 1 ?
+                3 : settings.countdown_refresh_minutes;
+    }
+
+    /**
+     * @return overdue events replayed per second when catching up after an outage
+     */
+    public double getCatchUpRate()
+    {
+        return settings.catch_up_rate == null || settings.catch_up_rate <= 0 ? 2.0 : settings.catch_up_rate;
+    }
+
+    /**
+     * @return minutes a failing message request is retried before it is given up
+     */
+    public int getRetryMaxAge()
+    {
+        return settings.retry_max_age == null || settings.retry_max_age < 1 ? 30 : settings.retry_max_age;
+    }
+
+    /**
+     * @return true if message sends waiting to be retried may be written to the database when too many are queued
+     */
+    public boolean getRetrySpill()
+    {
+        return settings.retry_spill != null && settings.retry_spill;
+    }
+
+    /**
+     * @return threads used to run commands
+     */
+    public int getCommandWorkers()
+    {
+        return settings.command_workers == null || settings.command_workers < 1 ? 16 : settings.command_workers;
+    }
+
+    /**
+     * @return threads used to reload event displays
+     */
+    public int getDisplayWorkers()
+    {
+        return settings.display_workers == null || settings.display_workers < 1 ? 8 : settings.display_workers;
+    }
+
+    /**
+     * @return threads used to sync schedules to google calendars
+     */
+    public int getSyncWorkers()
+    {
+        return settings.sync_workers == null || settings.sync_workers < 1 ? 4 : settings.sync_workers;
+    }
+
+    /**
+     * @return true if commands, display reloads, and schedule syncs should run on virtual threads (Java 21+),
+     *         read once on startup
+     */
+    public boolean getVirtualThreads()
+    {
+        return settings.virtual_threads != null && settings.virtual_threads;
+    }
 }
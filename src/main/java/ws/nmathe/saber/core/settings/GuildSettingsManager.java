@@ -1,11 +1,18 @@
 package ws.nmathe.saber.core.settings;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.commands.general.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.set;
@@ -15,12 +22,52 @@ import static com.mongodb.client.model.Updates.set;
  */
 public class GuildSettingsManager
 {
+    // guild settings objects are shared by all callers, their setters write through to the database
+    private LoadingCache<String, GuildSettings> settingsCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(6, TimeUnit.HOURS)
+            .recordStats()
+            .build(new CacheLoader<String, GuildSettings>()
+            {
+                @Override
+                public GuildSettings load(String guildId)
+                {
+                    return loadGuildSettings(guildId);
+                }
+            });
+
     /**
-     * retrieves the guild settings object for a guild
+     * retrieves the guild settings object for a guild,
+     * the database is only read the first time a guild's settings are requested
      * @param guildId ID of guild
      * @return GuildSettings object (never null)
      */
     public GuildSettings getGuildSettings(String guildId)
+    {
+        return this.settingsCache.getUnchecked(guildId);
+    }
+
+    /**
+     * drops the cached settings of a guild, should be used when the guild's document is deleted
+     * @param guildId ID of guild
+     */
+    public void invalidateGuildSettings(String guildId)
+    {
+        this.settingsCache.invalidate(guildId);
+    }
+
+    /**
+     * @return hit/miss statistics of the guild settings cache
+     */
+    public CacheStats getCacheStats()
+    {
+        return this.settingsCache.stats();
+    }
+
+    /**
+     * reads the settings document of a guild, creating it with default values if it does not exist
+     */
+    private GuildSettings loadGuildSettings(String guildId)
     {
         Document guildDoc = Main.getDBDriver().getGuildCollection().find(eq("_id", guildId)).first();
 
@@ -37,6 +84,8 @@ public class GuildSettingsManager
             // initialize with defaults
             guildDoc = new Document()
                     .append("_id", guildId)
+                    .append("shard", ShardManager.shardOf(guildId))
+                    .append("shard_total", Main.getBotSettingsManager().getShardTotal())
                     .append("prefix", Main.getBotSettingsManager().getCommandPrefix())
                     .append("unrestricted_commands", unrestrictedCommands)
                     .append("late_threshold", 15);
@@ -53,11 +102,11 @@ public class GuildSettingsManager
     @SuppressWarnings("unchecked")
     public static class GuildSettings
     {
-        String guildId;
-        String commandPrefix;
-        ArrayList<String> unrestrictedCommands;
-        String commandChannelId;
-        Integer lateThreshold;
+        final String guildId;
+        volatile String commandPrefix;
+        volatile ArrayList<String> unrestrictedCommands;
+        volatile String commandChannelId;
+        volatile Integer lateThreshold;
 
         GuildSettings(Document guildDocument)
         {
@@ -65,7 +114,8 @@ public class GuildSettingsManager
             commandPrefix = guildDocument.getString("prefix");
             commandChannelId = guildDocument.get("command_channel") != null ?
                     guildDocument.getString("command_channel") : null;
-            unrestrictedCommands = (ArrayList<String>) guildDocument.get("unrestricted_commands");
+            unrestrictedCommands = guildDocument.get("unrestricted_commands") != null ?
+                    new ArrayList<>((List<String>) guildDocument.get("unrestricted_commands")) : new ArrayList<>();
             lateThreshold = guildDocument.get("late_threshold") != null ?
                     guildDocument.getInteger("late_threshold") : 15;
         }
@@ -83,8 +133,8 @@ public class GuildSettingsManager
         }
 
         public ArrayList<String> getUnrestrictedCommands()
-        {
-            return unrestrictedCommands;
+        {   // copy, the settings object is shared
+            return new ArrayList<>(unrestrictedCommands);
         }
 
         public ArrayList<String> getRestrictedCommands()
@@ -119,7 +169,7 @@ public class GuildSettingsManager
         {
             Main.getDBDriver().getGuildCollection().updateOne(eq("_id", guildId),
                     set("unrestricted_commands", unrestrictedCommands));
-            this.unrestrictedCommands = unrestrictedCommands;
+            this.unrestrictedCommands = new ArrayList<>(unrestrictedCommands);
         }
 
         public void setLateThreshold(Integer minutes)
@@ -0,0 +1,293 @@
+package ws.nmathe.saber.utils;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.requests.RestAction;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Orders the bot's outbound requests to each channel by priority.
+ * Each channel has its own queue with a lane per priority, and holds only one request in flight,
+ * so a backlog of display edits can never delay a start announcement sent to the same channel.
+ * A queued edit of a message is replaced by any newer request for the same message, while a queued delete
+ * is final: a later edit of the message is dropped. The failure consumer of a dropped request is given
+ * a CancellationException.
+ */
+public class MessageDispatcher
+{
+    /** lanes of a channel queue, highest priority first */
+    public enum Priority { ANNOUNCEMENT, REMINDER, DISPLAY, LOG }
+
+    // channel ID -> queue, a channel has a queue only while it has a request in flight
+    private final Map<String, ChannelQueue> queues = new ConcurrentHashMap<>();
+
+    private final Map<Priority, LaneStats> stats = new EnumMap<>(Priority.class);
+    private final AtomicLong superseded = new AtomicLong();
+
+    public MessageDispatcher()
+    {
+        for (Priority priority : Priority.values())
+        {
+            this.stats.put(priority, new LaneStats());
+        }
+    }
+
+    /**
+     * queues a request to a channel
+     * @param channel the channel the request is made to
+     * @param priority lane of the request
+     * @param request supplies the request when it is time to send it
+     * @param success (nullable) consumer of the request's result
+     * @param failure (nullable) consumer of the request's error
+     */
+    public <T> void send(MessageChannel channel, Priority priority,
+                         Supplier<RestAction<T>> request, Consumer<T> success, Consumer<Throwable> failure)
+    {
+        this.send(channel, priority, null, false, request, success, failure);
+    }
+
+    /**
+     * queues a request to a channel which replaces any edit of the same message still waiting in the queue
+     * @param messageId ID of the message which is edited or deleted by the request
+     * @param delete true if the request deletes the message
+     */
+    public <T> void send(MessageChannel channel, Priority priority, String messageId, boolean delete,
+                         Supplier<RestAction<T>> request, Consumer<T> success, Consumer<Throwable> failure)
+    {
+        Runnable cancel = () ->
+        {
+            if (failure != null) failure.accept(
+                    new CancellationException("Superseded by another request for message " + messageId));
+        };
+        Job job = new Job(priority, messageId, delete, cancel, done ->
+        {
+            try
+            {
+                request.get().queue(result ->
+                {
+                    done.run();
+                    if (success != null) success.accept(result);
+                }, error ->
+                {
+                    done.run();
+                    if (failure != null) failure.accept(error);
+                });
+                return true;
+            }
+            catch (Exception e)
+            {
+                if (failure != null) failure.accept(e);
+                return false;
+            }
+        });
+
+        String channelId = channel.getId();
+        boolean[] idle = new boolean[1];
+        Runnable[] dropped = new Runnable[1];
+        this.queues.compute(channelId, (id, queue) ->
+        {
+            if (queue == null)
+            {   // nothing in flight, send immediately
+                idle[0] = true;
+                return new ChannelQueue();
+            }
+            dropped[0] = queue.offer(job);
+            return queue;
+        });
+        if (idle[0])
+        {
+            this.dispatch(channelId, this.started(job));
+        }
+        else if (dropped[0] == null)
+        {
+            this.stats.get(priority).depth.incrementAndGet();
+        }
+        else
+        {   // signalled outside of the queues map
+            this.superseded.incrementAndGet();
+            dropped[0].run();
+        }
+    }
+
+    /**
+     * sends the job and each following job of the channel's queue which fails before it is in flight
+     */
+    private void dispatch(String channelId, Job job)
+    {
+        while (job != null)
+        {
+            if (job.request.send(() -> this.dispatch(channelId, this.next(channelId)))) return;
+            job = this.next(channelId);
+        }
+    }
+
+    /**
+     * takes the next job from the channel's queue, dropping the queue when it is empty
+     */
+    private Job next(String channelId)
+    {
+        Job[] next = new Job[1];
+        this.queues.computeIfPresent(channelId, (id, queue) ->
+        {
+            next[0] = queue.poll();
+            return next[0] == null ? null : queue;
+        });
+        if (next[0] == null) return null;
+        this.stats.get(next[0].priority).depth.decrementAndGet();
+        return this.started(next[0]);
+    }
+
+    private Job started(Job job)
+    {
+        LaneStats lane = this.stats.get(job.priority);
+        long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.enqueued);
+        lane.sent.incrementAndGet();
+        lane.totalWait.addAndGet(wait);
+        lane.maxWait.accumulateAndGet(wait, Math::max);
+        return job;
+    }
+
+    /**
+     * @return number of requests waiting in the lane across all channels
+     */
+    public int getQueueDepth(Priority priority)
+    {
+        return this.stats.get(priority).depth.get();
+    }
+
+    /**
+     * @return number of requests of the lane which have been sent
+     */
+    public long getSentCount(Priority priority)
+    {
+        return this.stats.get(priority).sent.get();
+    }
+
+    /**
+     * @return mean milliseconds a request of the lane waited before it was sent
+     */
+    public long getAverageWait(Priority priority)
+    {
+        LaneStats lane = this.stats.get(priority);
+        long sent = lane.sent.get();
+        return sent == 0 ? 0 : lane.totalWait.get() / sent;
+    }
+
+    /**
+     * @return longest milliseconds a request of the lane waited before it was sent
+     */
+    public long getMaxWait(Priority priority)
+    {
+        return this.stats.get(priority).maxWait.get();
+    }
+
+    /**
+     * @return number of queued requests which were dropped for another request of the same message
+     */
+    public long getSupersededCount()
+    {
+        return this.superseded.get();
+    }
+
+    /**
+     * the requests waiting for a single channel, guarded by the queues map
+     */
+    private static class ChannelQueue
+    {
+        private final List<Deque<Job>> lanes = new ArrayList<>();
+        private final Map<String, Job> byMessage = new HashMap<>();   // queued requests for a message
+
+        ChannelQueue()
+        {
+            for (int i=0; i<Priority.values().length; i++)
+            {
+                this.lanes.add(new ArrayDeque<>());
+            }
+        }
+
+        /**
+         * @return null if the job was queued, otherwise the cancel of the request which was dropped,
+         *         either the outdated request of a job already in the queue or the job's own
+         */
+        Runnable offer(Job job)
+        {
+            if (job.messageId != null)
+            {
+                Job queued = this.byMessage.get(job.messageId);
+                if (queued != null)
+                {
+                    if (queued.delete && !job.delete) return job.cancel;   // the message is being deleted
+
+                    Runnable cancel = queued.cancel;
+                    queued.request = job.request;
+                    queued.cancel = job.cancel;
+                    queued.delete = job.delete;
+                    return cancel;
+                }
+                this.byMessage.put(job.messageId, job);
+            }
+            this.lanes.get(job.priority.ordinal()).add(job);
+            return null;
+        }
+
+        Job poll()
+        {
+            for (Deque<Job> lane : this.lanes)
+            {
+                Job job = lane.poll();
+                if (job != null)
+                {
+                    if (job.messageId != null) this.byMessage.remove(job.messageId, job);
+                    return job;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * a queued request
+     */
+    private static class Job
+    {
+        final Priority priority;
+        final String messageId;
+        final long enqueued = System.nanoTime();
+        volatile boolean delete;        // whether the request deletes the message
+        volatile Runnable cancel;       // signals the request's failure consumer that it was dropped
+        volatile Request request;
+
+        Job(Priority priority, String messageId, boolean delete, Runnable cancel, Request request)
+        {
+            this.priority = priority;
+            this.messageId = messageId;
+            this.delete = delete;
+            this.cancel = cancel;
+            this.request = request;
+        }
+    }
+
+    private interface Request
+    {
+        /**
+         * @param done run once the request has completed
+         * @return false if the request failed before it could be sent (done is not run)
+         */
+        boolean send(Runnable done);
+    }
+
+    private static class LaneStats
+    {
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong totalWait = new AtomicLong();
+        final AtomicLong maxWait = new AtomicLong();
+    }
+}
@@ -3,8 +3,12 @@ package ws.nmathe.saber.utils;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
 import net.dv8tion.jda.api.exceptions.PermissionException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import ws.nmathe.saber.Main;
 
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
 /**
@@ -30,7 +34,9 @@ public class MessageUtilities
         {
             chan.sendMessage(content).queue(action, e ->
             {
-                if (!(e instanceof PermissionException))
+                if (e instanceof PermissionException) return;
+                if (!Main.getRetryQueue().retry(e, chan, MessageDispatcher.Priority.DISPLAY, null, false,
+                        () -> chan.sendMessage(content), action))
                 {
                     Logging.exception(MessageUtilities.class, e);
                 }
@@ -52,7 +58,9 @@ public class MessageUtilities
         {
             chan.sendMessage(message).queue(action, e ->
             {
-                if(!(e instanceof PermissionException))
+                if (e instanceof PermissionException) return;
+                if (!Main.getRetryQueue().retry(e, chan, MessageDispatcher.Priority.DISPLAY, null, false,
+                        () -> chan.sendMessage(message), action))
                 {
                     Logging.exception(MessageUtilities.class, e);
                 }
@@ -97,6 +105,28 @@ public class MessageUtilities
         }
     }
 
+    /**
+     * queues a message to a channel behind the dispatcher's higher priority requests to that channel,
+     * the message is retried if the send fails for a transient reason
+     *
+     * @param content The message string to send
+     * @param chan The channel to send to
+     * @param priority the dispatcher lane of the message
+     * @param action a non null Consumer will do operations on the results returned
+     */
+    public static void queueMsg(String content, MessageChannel chan, MessageDispatcher.Priority priority, Consumer<Message> action)
+    {
+        if(content.isEmpty()) return;
+
+        Main.getRetryQueue().sendMessage(content, chan, priority, action, e ->
+        {
+            if (!(e instanceof PermissionException))
+            {
+                Logging.exception(MessageUtilities.class, e);
+            }
+        });
+    }
+
     /**
      * sends a message to a private message channel, opening the channel before use
      *, asynchronous (non-blocking)
@@ -135,7 +165,9 @@ public class MessageUtilities
         {
             msg.editMessage(newMsg).queue(action, e ->
             {
-                if (!(e instanceof PermissionException))
+                if (e instanceof PermissionException) return;
+                if (!Main.getRetryQueue().retry(e, msg.getChannel(), MessageDispatcher.Priority.DISPLAY,
+                        msg.getId(), false, () -> msg.getChannel().editMessageById(msg.getId(), newMsg), action))
                 {
                     Logging.exception(MessageUtilities.class, e);
                 }
@@ -165,6 +197,44 @@ public class MessageUtilities
         }
     }
 
+    /**
+     * replaces the content of a message identified by its ID, without first retrieving the message
+     * , queued as a display edit which is dropped if the message is edited or deleted before it is sent
+     * @param newMsg the new message content
+     * @param chan the channel which holds the message
+     * @param msgId the ID of the message to edit
+     * @param action a non null Consumer will do operations on the results returned
+     */
+    public static void editMsgById(Message newMsg, MessageChannel chan, String msgId, Consumer<Message> action)
+    {
+        if (newMsg.getContentRaw().isEmpty() && newMsg.getEmbeds().isEmpty()) return;
+
+        Main.getRetryQueue().send(chan, MessageDispatcher.Priority.DISPLAY, msgId, false,
+                () -> chan.editMessageById(msgId, newMsg), action, MessageUtilities::logByIdFailure);
+    }
+
+    /**
+     * attempts to remove a message identified by its ID, without first retrieving the message
+     * , queued as a display request which replaces any queued edit of the message and drops any later one
+     * @param chan the channel which holds the message
+     * @param msgId the ID of the message to delete
+     * @param action a non null Consumer will do operations on the results returned
+     */
+    public static void deleteMsgById(MessageChannel chan, String msgId, Consumer<Void> action)
+    {
+        Main.getRetryQueue().send(chan, MessageDispatcher.Priority.DISPLAY, msgId, true,
+                () -> chan.deleteMessageById(msgId), action, MessageUtilities::logByIdFailure);
+    }
+
+    /// messages which no longer exist, and requests superseded by another, are expected when acting on a message by ID
+    private static void logByIdFailure(Throwable e)
+    {
+        if (e instanceof PermissionException || e instanceof CancellationException) return;
+        if (e instanceof ErrorResponseException &&
+                ((ErrorResponseException) e).getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) return;
+        Logging.exception(MessageUtilities.class, e);
+    }
+
     /**
      * attempts to remove a message, asynchronous (non-blocking)
      * @param msg the message to delete
@@ -176,7 +246,9 @@ public class MessageUtilities
         {
             msg.delete().queue(action, e ->
             {
-                if (!(e instanceof PermissionException))
+                if (e instanceof PermissionException) return;
+                if (!Main.getRetryQueue().retry(e, msg.getChannel(), MessageDispatcher.Priority.DISPLAY,
+                        msg.getId(), true, () -> msg.getChannel().deleteMessageById(msg.getId()), action))
                 {
                     Logging.exception(MessageUtilities.class, e);
                 }
@@ -0,0 +1,441 @@
+package ws.nmathe.saber.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.exceptions.RateLimitedException;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * Retries requests sent through the message dispatcher which failed for a transient reason
+ * (a Discord server error, a rate limit, or a network failure).
+ * Retries wait with exponential backoff and full jitter, and are given up once the request has been failing
+ * for longer than the configured maximum age (retry_max_age). Requests which are given up are recorded in the
+ * 'dead_letters' collection. Retries are held in memory; when too many are waiting, message sends may be
+ * spilled to the 'retry_queue' collection (retry_spill) and are loaded back as room frees up.
+ * A retry of an edit is dropped once a newer request for the same message has been made, so that a late retry
+ * cannot restore outdated content. A retry of a delete is dropped only for a newer delete, and an edit made while
+ * a delete of the message is pending is dropped.
+ */
+public class RetryQueue
+{
+    private static final long BASE_DELAY   = TimeUnit.SECONDS.toMillis(2);
+    private static final long MAX_DELAY    = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_IN_MEMORY = 5000;
+    private static final long SPILL_POLL   = 30;    // seconds between loads of spilled retries
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("RetryQueue-%d").setDaemon(true).build());
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    // message ID -> latest request made for the message, while it is pending
+    private final Map<String, Attempt<?>> latest = new ConcurrentHashMap<>();
+
+    public RetryQueue()
+    {
+        this.scheduler.scheduleWithFixedDelay(this::loadSpilled, SPILL_POLL, SPILL_POLL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * queues a request to a channel through the dispatcher, retrying it on transient failures
+     * @param channel the channel the request is made to
+     * @param priority dispatcher lane of the request
+     * @param messageId (nullable) ID of the message which is edited or deleted by the request
+     * @param delete true if the request deletes the message
+     * @param request supplies the request each time it is sent
+     * @param success (nullable) consumer of the request's result
+     * @param failure (nullable) consumer of the request's error, once the request has been given up
+     */
+    public <T> void send(MessageChannel channel, MessageDispatcher.Priority priority, String messageId, boolean delete,
+                         Supplier<RestAction<T>> request, Consumer<T> success, Consumer<Throwable> failure)
+    {
+        Attempt<T> attempt = new Attempt<>(channel, priority, messageId, delete, null,
+                ignored -> request.get(), success, failure);
+        if (!this.track(attempt))
+        {
+            if (failure != null)
+            {
+                failure.accept(new CancellationException("Message " + messageId + " is being deleted"));
+            }
+            return;
+        }
+        this.dispatch(attempt);
+    }
+
+    /**
+     * queues a message to a channel through the dispatcher, retrying it on transient failures,
+     * a message which is retried may be spilled to the database
+     * @param content the message
+     * @param channel the channel to send to
+     * @param priority dispatcher lane of the message
+     * @param success (nullable) consumer of the sent message
+     * @param failure (nullable) consumer of the send's error, once the message has been given up
+     */
+    public void sendMessage(String content, MessageChannel channel, MessageDispatcher.Priority priority,
+                            Consumer<Message> success, Consumer<Throwable> failure)
+    {
+        this.dispatch(new Attempt<>(channel, priority, null, false, content,
+                resolved -> resolved.sendMessage(content), success, failure));
+    }
+
+    /**
+     * retries a request which was sent outside of the retry queue and has failed
+     * @param error the failure of the request
+     * @return false if the failure was not transient and the request will not be retried
+     *         (an edit of a message which is being deleted is dropped)
+     */
+    public <T> boolean retry(Throwable error, MessageChannel channel, MessageDispatcher.Priority priority,
+                             String messageId, boolean delete, Supplier<RestAction<T>> request, Consumer<T> success)
+    {
+        if (!isTransient(error)) return false;
+        Attempt<T> attempt = new Attempt<>(channel, priority, messageId, delete, null,
+                ignored -> request.get(), success, null);
+        attempt.attempts = 1;
+        if (this.track(attempt)) this.failed(attempt, error);
+        return true;
+    }
+
+    /**
+     * is the failure one which may not occur if the request is sent again?
+     */
+    public static boolean isTransient(Throwable e)
+    {
+        if (e instanceof RateLimitedException || e instanceof TimeoutException) return true;
+        if (e instanceof ErrorResponseException)
+        {
+            ErrorResponseException response = (ErrorResponseException) e;
+            if (response.isServerError()) return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * makes the attempt the latest request for its message, superseding the retries of earlier requests
+     * @return false if the attempt is an edit of a message with a pending delete, which it may not supersede
+     */
+    private boolean track(Attempt<?> attempt)
+    {
+        if (attempt.messageId == null) return true;
+        boolean[] tracked = new boolean[]{true};
+        this.latest.compute(attempt.messageId, (id, pending) ->
+        {
+            if (pending != null && pending.delete && !attempt.delete)
+            {
+                tracked[0] = false;
+                return pending;
+            }
+            return attempt;
+        });
+        return tracked[0];
+    }
+
+    /**
+     * @return true if a newer request has been made for the attempt's message
+     */
+    private boolean superseded(Attempt<?> attempt)
+    {
+        return attempt.messageId != null && this.latest.get(attempt.messageId) != attempt;
+    }
+
+    /**
+     * forgets the latest request of a message once it has completed
+     */
+    private void completed(Attempt<?> attempt)
+    {
+        if (attempt.messageId != null) this.latest.remove(attempt.messageId, attempt);
+    }
+
+    private <T> void dispatch(Attempt<T> attempt)
+    {
+        MessageChannel channel = attempt.resolve();
+        if (channel == null)
+        {
+            this.completed(attempt);
+            this.deadLetter(attempt, "the channel is no longer available");
+            return;
+        }
+
+        attempt.attempts++;
+        Main.getMessageDispatcher().send(channel, attempt.priority, attempt.messageId, attempt.delete,
+                () -> attempt.request.apply(channel), result ->
+        {
+            this.completed(attempt);
+            if (attempt.attempts > 1) this.recovered.incrementAndGet();
+            if (attempt.success != null) attempt.success.accept(result);
+        }, e -> this.failed(attempt, e));
+    }
+
+    /**
+     * schedules the next attempt of a request which has failed, or gives it up
+     */
+    private <T> void failed(Attempt<T> attempt, Throwable e)
+    {
+        if (!isTransient(e))
+        {
+            this.completed(attempt);
+            if (attempt.failure != null) attempt.failure.accept(e);
+            return;
+        }
+        if (this.superseded(attempt)) return;     // a newer request for the message replaces this one
+
+        long now = System.currentTimeMillis();
+        long maxAge = TimeUnit.MINUTES.toMillis(Main.getBotSettingsManager().getRetryMaxAge());
+        if (now - attempt.first > maxAge)
+        {
+            this.completed(attempt);
+            this.deadLetter(attempt, e.getMessage());
+            if (attempt.failure != null) attempt.failure.accept(e);
+            return;
+        }
+
+        // jitter: a random delay between half and all of the exponential backoff
+        long backoff = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt.attempts - 1, 16));
+        long delay = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+
+        if (this.waiting.get() >= MAX_IN_MEMORY)
+        {
+            boolean spillable = attempt.content != null && Main.getBotSettingsManager().getRetrySpill();
+            if (spillable && this.spill(attempt, now + delay)) return;
+            this.completed(attempt);
+            this.deadLetter(attempt, "the retry queue is full: " + e.getMessage());
+            if (attempt.failure != null) attempt.failure.accept(e);
+            return;
+        }
+
+        this.retried.incrementAndGet();
+        this.waiting.incrementAndGet();
+        this.scheduler.schedule(() ->
+        {
+            this.waiting.decrementAndGet();
+            try
+            {
+                if (!this.superseded(attempt)) this.dispatch(attempt);
+            }
+            catch (Exception ex)
+            {
+                Logging.exception(this.getClass(), ex);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * writes a message send to the retry collection
+     * @return false if the send could not be written
+     */
+    private boolean spill(Attempt<?> attempt, long next)
+    {
+        try
+        {
+            Main.getDBDriver().getRetryCollection().insertOne(new Document()
+                    .append("channelId", attempt.channelId)
+                    .append("guildId", attempt.guildId)
+                    .append("shard", attempt.guildId == null ? 0 : ShardManager.shardOf(attempt.guildId))
+                    .append("content", attempt.content)
+                    .append("priority", attempt.priority.toString())
+                    .append("attempts", attempt.attempts)
+                    .append("first", new Date(attempt.first))
+                    .append("next", new Date(next)));
+            this.spilled.incrementAndGet();
+            return true;
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * moves spilled message sends which are due back into memory, while there is room
+     */
+    private void loadSpilled()
+    {
+        try
+        {
+            int room = MAX_IN_MEMORY / 2 - this.waiting.get();
+            if (room <= 0 || !Main.getBotSettingsManager().getRetrySpill()) return;
+
+            List<Document> due = Main.getDBDriver().getRetryCollection()
+                    .find(and(ShardManager.getLocalShardFilter(), lte("next", new Date())))
+                    .sort(ascending("next"))
+                    .limit(room)
+                    .into(new ArrayList<>());
+            for (Document document : due)
+            {
+                // only the process which removes the document sends it
+                ObjectId id = document.getObjectId("_id");
+                if (Main.getDBDriver().getRetryCollection().deleteOne(eq("_id", id)).getDeletedCount() == 0) continue;
+
+                String content = document.getString("content");
+                Attempt<Message> attempt = new Attempt<>(document.getString("channelId"), document.getString("guildId"),
+                        MessageDispatcher.Priority.valueOf(document.getString("priority")), content);
+                attempt.attempts = document.getInteger("attempts", 1);
+                attempt.first = document.getDate("first").getTime();
+                this.dispatch(attempt);
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * records a request which has been given up
+     */
+    private void deadLetter(Attempt<?> attempt, String error)
+    {
+        this.deadLettered.incrementAndGet();
+        Logging.warn(this.getClass(), "Gave up a request to channel " + attempt.channelId + " after " +
+                attempt.attempts + " attempts: " + error);
+        try
+        {
+            Main.getDBDriver().getDeadLetterCollection().insertOne(new Document()
+                    .append("channelId", attempt.channelId)
+                    .append("guildId", attempt.guildId)
+                    .append("messageId", attempt.messageId)
+                    .append("content", attempt.content)
+                    .append("priority", attempt.priority.toString())
+                    .append("attempts", attempt.attempts)
+                    .append("first", new Date(attempt.first))
+                    .append("failed", new Date())
+                    .append("error", error));
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * @return number of requests waiting in memory for their next attempt
+     */
+    public int getWaitingCount()
+    {
+        return this.waiting.get();
+    }
+
+    /**
+     * @return number of attempts scheduled after a transient failure
+     */
+    public long getRetriedCount()
+    {
+        return this.retried.get();
+    }
+
+    /**
+     * @return number of requests which succeeded after being retried
+     */
+    public long getRecoveredCount()
+    {
+        return this.recovered.get();
+    }
+
+    /**
+     * @return number of message sends spilled to the database
+     */
+    public long getSpilledCount()
+    {
+        return this.spilled.get();
+    }
+
+    /**
+     * @return number of requests given up and recorded as dead letters
+     */
+    public long getDeadLetterCount()
+    {
+        return this.deadLettered.get();
+    }
+
+    /**
+     * a request with its retry state
+     */
+    private static class Attempt<T>
+    {
+        final String channelId;
+        final String guildId;           // null for channels outside of a guild
+        final MessageChannel channel;   // null for attempts loaded from the database
+        final MessageDispatcher.Priority priority;
+        final String messageId;
+        final boolean delete;           // whether the request deletes the message
+        final String content;           // the message of a spillable send
+        final Function<MessageChannel, RestAction<T>> request;    // given the channel resolved for the attempt
+        final Consumer<T> success;
+        final Consumer<Throwable> failure;
+        long first = System.currentTimeMillis();
+        int attempts = 0;
+
+        Attempt(MessageChannel channel, MessageDispatcher.Priority priority, String messageId, boolean delete,
+                String content, Function<MessageChannel, RestAction<T>> request,
+                Consumer<T> success, Consumer<Throwable> failure)
+        {
+            this.channelId = channel.getId();
+            this.guildId = channel instanceof TextChannel ? ((TextChannel) channel).getGuild().getId() : null;
+            this.channel = channel;
+            this.priority = priority;
+            this.messageId = messageId;
+            this.delete = delete;
+            this.content = content;
+            this.request = request;
+            this.success = success;
+            this.failure = failure;
+        }
+
+        /** a spilled message send */
+        @SuppressWarnings("unchecked")
+        Attempt(String channelId, String guildId, MessageDispatcher.Priority priority, String content)
+        {
+            this.channelId = channelId;
+            this.guildId = guildId;
+            this.channel = null;
+            this.priority = priority;
+            this.messageId = null;
+            this.delete = false;
+            this.content = content;
+            this.request = resolved -> (RestAction<T>) resolved.sendMessage(content);
+            this.success = null;
+            this.failure = null;
+        }
+
+        /**
+         * @return the channel as currently cached by its shard, which may have reconnected since the first attempt
+         */
+        MessageChannel resolve()
+        {
+            if (this.guildId == null) return this.channel;
+            JDA jda = Main.getShardManager().getJDA(this.guildId);
+            return jda == null ? this.channel : jda.getTextChannelById(this.channelId);
+        }
+    }
+}